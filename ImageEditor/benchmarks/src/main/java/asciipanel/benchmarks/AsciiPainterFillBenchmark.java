@@ -0,0 +1,114 @@
+package asciipanel.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiPainter;
+import asciipanel.AsciiRaster;
+import asciipanel.IndexedAsciiRaster;
+import asciipanel.RasterDelta;
+import asciipanel.TiledAsciiRaster;
+
+/**
+ * Measures AsciiPainter.fill on a blank raster, where the whole raster is filled,
+ * and on a raster where 30% of the cells are covered by random noise, so that the
+ * filled area spans most of the raster but has a ragged border. Each invocation fills the same area with a different character than
+ * the previous one, so the work does not change between invocations.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsciiPainterFillBenchmark {
+
+	/**
+	 * Width and height of the raster
+	 */
+	@Param({ "100", "500", "2000" })
+	public int size;
+
+	/**
+	 * Storage of the raster: flat, indexed or tiled
+	 */
+	@Param({ "flat", "indexed", "tiled" })
+	public String storage;
+
+	/**
+	 * Content of the raster before the first fill: blank or noise
+	 */
+	@Param({ "blank", "noise" })
+	public String pattern;
+
+	/**
+	 * Whether changes are recorded for undo, as the editor does
+	 */
+	@Param({ "false", "true" })
+	public boolean undoable;
+
+	private AsciiRaster raster;
+	private int startX;
+	private int startY;
+	private int counter;
+
+	@Setup
+	public void setup() {
+		raster = createRaster(storage, size, size);
+
+		if (pattern.equals("noise")) {
+			Random random = new Random(42);
+			for (int y = 0; y < size; ++y)
+				for (int x = 0; x < size; ++x)
+					if (random.nextInt(100) < 30)
+						raster.setCell(x, y, '#', 0xFFFFFFFF, AsciiRaster.DEFAULT_RGB);
+		}
+
+		// start from the first blank cell
+		for (int i = 0; i < size * size; ++i) {
+			if (raster.getCharAt(i % size, i / size) == 0) {
+				startX = i % size;
+				startY = i / size;
+				break;
+			}
+		}
+	}
+
+	@Benchmark
+	public AsciiRaster fill() {
+		AsciiPainter painter = new AsciiPainter(raster);
+
+		if (undoable)
+			painter.setDelta(new RasterDelta(raster));
+
+		painter.moveTo(startX, startY).fill((char) ('a' + (counter++ & 1)));
+		return raster;
+	}
+
+	static AsciiRaster createRaster(String storage, int width, int height) {
+		switch (storage) {
+		case "flat":
+			return new AsciiRaster(width, height);
+		case "indexed":
+			return new IndexedAsciiRaster(width, height);
+		case "tiled":
+			return new TiledAsciiRaster(width, height);
+		default:
+			throw new IllegalArgumentException("unknown storage: " + storage);
+		}
+	}
+}
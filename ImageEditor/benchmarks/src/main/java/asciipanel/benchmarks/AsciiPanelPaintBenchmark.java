@@ -0,0 +1,123 @@
+package asciipanel.benchmarks;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiFont;
+import asciipanel.AsciiPainter;
+import asciipanel.AsciiPanel;
+import asciipanel.AsciiPanelModel;
+import asciipanel.AsciiRaster;
+
+/**
+ * Measures AsciiPanel.paint: a full repaint after the whole content of the raster
+ * changed, and the repaint of a single cell after it was painted. The panel paints
+ * into an image of its own size, without a screen.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class AsciiPanelPaintBenchmark {
+
+	/**
+	 * Width and height of the raster, in cells
+	 */
+	@Param({ "80x25", "200x100", "400x200" })
+	public String canvas;
+
+	/**
+	 * Name of a font constant of AsciiFont
+	 */
+	@Param({ "CP437_8x8", "CP437_9x16", "CP437_16x16" })
+	public String font;
+
+	/**
+	 * Whether cells are written directly into the pixels of the offscreen buffer
+	 */
+	@Param({ "true", "false" })
+	public boolean directRendering;
+
+	private AsciiPanelModel model;
+	private AsciiPanel panel;
+	private AsciiPainter painter;
+	private BufferedImage screen;
+	private Graphics graphics;
+	private int counter;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		int width = Integer.parseInt(canvas.substring(0, canvas.indexOf('x')));
+		int height = Integer.parseInt(canvas.substring(canvas.indexOf('x') + 1));
+
+		Random random = new Random(42);
+		AsciiRaster raster = AsciiRaster.create(width, height);
+
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				raster.setCell(x, y, (char) random.nextInt(256),
+						0xFF000000 | random.nextInt(16) * 0x111111, 0xFF000000 | random.nextInt(16) * 0x100010);
+
+		model = new AsciiPanelModel(raster, (AsciiFont) AsciiFont.class.getField(font).get(null));
+		model.setFrameRate(0); // notify changes immediately
+
+		panel = new AsciiPanel(model);
+		panel.setDirectRendering(directRendering);
+		panel.setSize(panel.getPreferredSize());
+
+		screen = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+		graphics = screen.getGraphics();
+		painter = model.beginPaint();
+
+		panel.paint(graphics);
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphics.dispose();
+	}
+
+	@Benchmark
+	public BufferedImage fullRepaint() {
+		model.setRaster(model.getRaster());
+		panel.paint(graphics);
+		return screen;
+	}
+
+	@Benchmark
+	public BufferedImage cellRepaint() {
+		AsciiFont f = model.getFont();
+		int x = counter % model.getRaster().getWidth();
+		int y = counter / model.getRaster().getWidth() % model.getRaster().getHeight();
+		++counter;
+
+		painter.putCell(x, y, (char) (counter & 0xFF));
+		model.endPaint(painter);
+
+		Graphics clipped = graphics.create(x * f.getWidth(), y * f.getHeight(), f.getWidth(), f.getHeight());
+		clipped.translate(-x * f.getWidth(), -y * f.getHeight());
+		panel.paint(clipped);
+		clipped.dispose();
+
+		return screen;
+	}
+}
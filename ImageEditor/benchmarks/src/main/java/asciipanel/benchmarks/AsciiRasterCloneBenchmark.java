@@ -0,0 +1,92 @@
+package asciipanel.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiRaster;
+
+/**
+ * Measures AsciiRaster.clone and AsciiRaster.snapshot. Since some rasters copy
+ * their cells lazily, each operation is also measured followed by a change to
+ * a single cell of the original raster, which forces the copy.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsciiRasterCloneBenchmark {
+
+	/**
+	 * Width and height of the raster
+	 */
+	@Param({ "100", "500", "2000" })
+	public int size;
+
+	/**
+	 * Storage of the raster: flat, indexed or tiled
+	 */
+	@Param({ "flat", "indexed", "tiled" })
+	public String storage;
+
+	private AsciiRaster raster;
+	private int counter;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		raster = AsciiPainterFillBenchmark.createRaster(storage, size, size);
+
+		for (int y = 0; y < size; ++y)
+			for (int x = 0; x < size; ++x)
+				raster.setCell(x, y, (char) random.nextInt(256),
+						0xFF000000 | random.nextInt(16) * 0x111111, 0xFF000000 | random.nextInt(16) * 0x100010);
+	}
+
+	@Benchmark
+	public AsciiRaster cloneRaster() {
+		return raster.clone();
+	}
+
+	@Benchmark
+	public AsciiRaster cloneAndWrite() {
+		AsciiRaster copy = raster.clone();
+		touch();
+		return copy;
+	}
+
+	@Benchmark
+	public AsciiRaster snapshot() {
+		return raster.snapshot();
+	}
+
+	@Benchmark
+	public AsciiRaster snapshotAndWrite() {
+		AsciiRaster copy = raster.snapshot();
+		touch();
+		return copy;
+	}
+
+	/**
+	 * Changes a cell of the original raster
+	 */
+	private void touch() {
+		int i = counter++ % (size * size);
+		raster.setCharAt(i % size, i / size, (char) counter);
+	}
+}
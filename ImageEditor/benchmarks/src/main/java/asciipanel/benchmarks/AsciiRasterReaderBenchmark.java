@@ -0,0 +1,102 @@
+package asciipanel.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiRaster;
+import asciipanel.AsciiRasterBinaryReader;
+import asciipanel.AsciiRasterBinaryWriter;
+import asciipanel.AsciiRasterReader;
+import asciipanel.AsciiRasterWriter;
+
+/**
+ * Measures the time needed to load a raster in text and in binary format.
+ * Files are generated in memory, so the results do not depend on the disk.
+ * 
+ * The number of cells loaded per second is size * size divided by the
+ * reported time.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsciiRasterReaderBenchmark {
+
+	/**
+	 * Width and height of the raster
+	 */
+	@Param({ "80", "500", "2000" })
+	public int size;
+
+	/**
+	 * Number of distinct colors in the raster
+	 */
+	@Param({ "16", "65536" })
+	public int colors;
+
+	private String text;
+	private byte[] binary;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(42);
+		AsciiRaster raster = new AsciiRaster(size, size);
+
+		for (int y = 0; y < size; ++y)
+			for (int x = 0; x < size; ++x)
+				raster.setCell(x, y, (char) random.nextInt(256),
+						0xFF000000 | random.nextInt(colors), 0xFF000000 | random.nextInt(colors));
+
+		StringWriter textOut = new StringWriter();
+		try (AsciiRasterWriter w = new AsciiRasterWriter(new BufferedWriter(textOut))) {
+			w.write(raster);
+		}
+		text = textOut.toString();
+
+		ByteArrayOutputStream binaryOut = new ByteArrayOutputStream();
+		try (WritableByteChannel channel = Channels.newChannel(binaryOut)) {
+			new AsciiRasterBinaryWriter(channel).write(raster);
+		}
+		binary = binaryOut.toByteArray();
+	}
+
+	@Benchmark
+	public AsciiRaster readText() throws IOException {
+		try (AsciiRasterReader r = new AsciiRasterReader(new BufferedReader(new StringReader(text)))) {
+			return r.read();
+		}
+	}
+
+	@Benchmark
+	public AsciiRaster readBinary() throws IOException {
+		try (AsciiRasterBinaryReader r = new AsciiRasterBinaryReader(
+				Channels.newChannel(new ByteArrayInputStream(binary)))) {
+			return r.read();
+		}
+	}
+}
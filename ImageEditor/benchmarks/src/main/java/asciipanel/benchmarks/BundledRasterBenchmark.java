@@ -0,0 +1,124 @@
+package asciipanel.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiPainter;
+import asciipanel.AsciiRaster;
+import asciipanel.AsciiRasterBinaryReader;
+import asciipanel.AsciiRasterBinaryWriter;
+import asciipanel.AsciiRasterReader;
+import asciipanel.AsciiRasterWriter;
+
+/**
+ * Measures the hot paths on the images bundled in the resources directory of
+ * ascii-panel: loading them in text, run-length encoded text and binary format,
+ * copying them and filling them from their top left corner.
+ * 
+ * The files are read from the directory specified by the system property
+ * benchmarks.resources, by default ../resources, which is the right path when
+ * the benchmarks are run from the benchmarks directory (JMH passes the system
+ * properties of the command line to the forked JVMs). The content of the files
+ * is loaded in memory before measuring, so the results do not depend on the disk.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundledRasterBenchmark {
+
+	/**
+	 * Name of a file in the resources directory
+	 */
+	@Param({ "kirbyfull.ascii", "darkmountains8060.ascii", "clouds8025.ascii", "test5050.ascii", "kirbyEdit_40.ascii" })
+	public String file;
+
+	private String text;
+	private String runLengthText;
+	private byte[] binary;
+	private AsciiRaster raster;
+
+	@Setup
+	public void setup() throws IOException {
+		String directory = System.getProperty("benchmarks.resources", "../resources");
+		text = new String(Files.readAllBytes(Paths.get(directory, file)), Charset.defaultCharset());
+		raster = readText();
+
+		if (raster == null)
+			throw new IOException(file + " is not a valid raster");
+
+		StringWriter runLengthOut = new StringWriter();
+		try (AsciiRasterWriter w = new AsciiRasterWriter(new BufferedWriter(runLengthOut), true)) {
+			w.write(raster);
+		}
+		runLengthText = runLengthOut.toString();
+
+		ByteArrayOutputStream binaryOut = new ByteArrayOutputStream();
+		try (WritableByteChannel channel = Channels.newChannel(binaryOut)) {
+			new AsciiRasterBinaryWriter(channel).write(raster);
+		}
+		binary = binaryOut.toByteArray();
+	}
+
+	@Benchmark
+	public AsciiRaster readText() throws IOException {
+		try (AsciiRasterReader r = new AsciiRasterReader(new BufferedReader(new StringReader(text)))) {
+			return r.read();
+		}
+	}
+
+	@Benchmark
+	public AsciiRaster readRunLengthText() throws IOException {
+		try (AsciiRasterReader r = new AsciiRasterReader(new BufferedReader(new StringReader(runLengthText)))) {
+			return r.read();
+		}
+	}
+
+	@Benchmark
+	public AsciiRaster readBinary() throws IOException {
+		try (AsciiRasterBinaryReader r = new AsciiRasterBinaryReader(
+				Channels.newChannel(new ByteArrayInputStream(binary)))) {
+			return r.read();
+		}
+	}
+
+	@Benchmark
+	public AsciiRaster cloneRaster() {
+		return raster.clone();
+	}
+
+	@Benchmark
+	public AsciiRaster fill() {
+		// alternating between two characters keeps the filled area the same
+		char character = raster.getCharAt(0, 0) == 'a' ? 'b' : 'a';
+		new AsciiPainter(raster).moveTo(0, 0).fill(character);
+		return raster;
+	}
+}
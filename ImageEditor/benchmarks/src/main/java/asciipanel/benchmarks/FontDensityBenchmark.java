@@ -0,0 +1,72 @@
+package asciipanel.benchmarks;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiFont;
+
+/**
+ * Measures the construction of the density table that the image converter uses to
+ * choose the glyphs, for every bundled font. The table is built the first time it
+ * is needed, so it is measured on a new font each time: createFont measures the
+ * font alone, and the difference with createFontAndDensityTable is the cost of the
+ * table.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FontDensityBenchmark {
+
+	/**
+	 * Name of a font constant of AsciiFont
+	 */
+	@Param({ "CP437_8x8", "CP437_10x10", "CP437_12x12", "CP437_16x16", "CP437_9x16", "DRAKE_10x10", "TAFFER_10x10",
+			"QBICFEET_10x10", "TALRYTH_15_15" })
+	public String font;
+
+	private BufferedImage sprite;
+	private int glyphWidth;
+	private int glyphHeight;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		AsciiFont f = SyntheticImages.font(font);
+		glyphWidth = f.getWidth();
+		glyphHeight = f.getHeight();
+
+		// the sprite of the bundled font, rebuilt from its glyphs
+		sprite = new BufferedImage(glyphWidth * 16, glyphHeight * 16, BufferedImage.TYPE_INT_ARGB);
+		Graphics g = sprite.getGraphics();
+		for (int i = 0; i < 256; ++i)
+			g.drawImage(f.getGlyph(i), i % 16 * glyphWidth, i / 16 * glyphHeight, null);
+		g.dispose();
+	}
+
+	@Benchmark
+	public AsciiFont createFont() {
+		return new AsciiFont(sprite, glyphWidth, glyphHeight);
+	}
+
+	@Benchmark
+	public int createFontAndDensityTable() {
+		return new AsciiFont(sprite, glyphWidth, glyphHeight).getGlyphForDensity(0);
+	}
+}
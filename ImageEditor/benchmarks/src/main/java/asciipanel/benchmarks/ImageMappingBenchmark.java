@@ -0,0 +1,78 @@
+package asciipanel.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiRaster;
+import imageeditor.ImageConverter;
+
+/**
+ * Measures ImageConverter.convertScaled, which maps each pixel of an image already
+ * scaled to the size of the raster to a glyph of the font and to its colors, for
+ * every bundled font. The density table of the font is built during the setup,
+ * see FontDensityBenchmark for its cost.
+ * 
+ * Run with -prof gc to report the allocation rate.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImageMappingBenchmark {
+
+	/**
+	 * Name of a font constant of AsciiFont
+	 */
+	@Param({ "CP437_8x8", "CP437_10x10", "CP437_12x12", "CP437_16x16", "CP437_9x16", "DRAKE_10x10", "TAFFER_10x10",
+			"QBICFEET_10x10", "TALRYTH_15_15" })
+	public String font;
+
+	/**
+	 * Width of the raster, in cells. The height is half of the width.
+	 */
+	@Param({ "80", "320", "1280" })
+	public int columns;
+
+	/**
+	 * Whether the converter keeps all colors or reduces them to 16
+	 */
+	@Param({ "true", "false" })
+	public boolean allColors;
+
+	private BufferedImage scaled;
+	private ImageConverter converter;
+	private AsciiRaster raster;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		int rows = columns / 2;
+
+		raster = AsciiRaster.create(columns, rows);
+		scaled = ImageConverter.scale(SyntheticImages.create("1920x1080", "TYPE_INT_RGB"), columns, rows);
+		converter = new ImageConverter(SyntheticImages.font(font), 255, allColors);
+
+		converter.convertScaled(raster, scaled);
+	}
+
+	@Benchmark
+	public AsciiRaster map() {
+		converter.convertScaled(raster, scaled);
+		return raster;
+	}
+}
@@ -0,0 +1,94 @@
+package asciipanel.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import asciipanel.AsciiFont;
+import asciipanel.AsciiRaster;
+import imageeditor.ImageConverter;
+
+/**
+ * Measures the steps of ImageConverter.convertTo that depend on the source image:
+ * scaling it to the size of the raster, reducing the colors of the scaled image
+ * (done only when allColors is false) and the whole conversion. The images are
+ * synthetic, with the size of common photos and screens up to 8K.
+ * 
+ * Run with -prof gc to report the allocation rate of each step.
+ * 
+ * @author Lorenzo Bianchi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx2g" })
+public class ImageScalingBenchmark {
+
+	/**
+	 * Size of the source image, from a thumbnail to 8K
+	 */
+	@Param({ "256x256", "1920x1080", "3840x2160", "7680x4320" })
+	public String size;
+
+	/**
+	 * Type of the source image, as the name of a constant of BufferedImage
+	 */
+	@Param({ "TYPE_INT_RGB", "TYPE_INT_ARGB", "TYPE_3BYTE_BGR", "TYPE_BYTE_GRAY" })
+	public String imageType;
+
+	/**
+	 * Whether the converter keeps all colors or reduces them to 16
+	 */
+	@Param({ "true", "false" })
+	public boolean allColors;
+
+	/**
+	 * Width of the raster, in cells. The height keeps the aspect ratio of the image.
+	 */
+	@Param({ "160" })
+	public int columns;
+
+	private BufferedImage image;
+	private BufferedImage scaled;
+	private ImageConverter converter;
+	private AsciiRaster raster;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		image = SyntheticImages.create(size, imageType);
+
+		int rows = Math.max(1, columns * image.getHeight() / image.getWidth());
+		raster = AsciiRaster.create(columns, rows);
+		scaled = ImageConverter.scale(image, columns, rows);
+		converter = new ImageConverter(AsciiFont.CP437_9x16, 255, allColors);
+	}
+
+	@Benchmark
+	public BufferedImage scale() {
+		return ImageConverter.scale(image, raster.getWidth(), raster.getHeight());
+	}
+
+	@Benchmark
+	public BufferedImage reduceColors() {
+		return ImageConverter.convert4(scaled);
+	}
+
+	@Benchmark
+	public AsciiRaster convert() {
+		converter.convertTo(raster, image);
+		return raster;
+	}
+}
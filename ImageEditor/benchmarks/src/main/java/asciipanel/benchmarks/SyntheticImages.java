@@ -0,0 +1,70 @@
+package asciipanel.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import asciipanel.AsciiFont;
+
+/**
+ * Helpers shared by the benchmarks of the image converter
+ * 
+ * @author Lorenzo Bianchi
+ */
+final class SyntheticImages {
+
+	private SyntheticImages() {
+	}
+
+	/**
+	 * Creates an image that resembles a photo: smooth color gradients with some noise,
+	 * so that it has many distinct colors like the images that are usually imported.
+	 * The content depends only on the size, not on the type.
+	 * 
+	 * @param size the size of the image, as WIDTHxHEIGHT
+	 * @param type the name of one of the TYPE_ constants of BufferedImage
+	 * @return a new image
+	 */
+	static BufferedImage create(String size, String type) throws ReflectiveOperationException {
+		int width = Integer.parseInt(size.substring(0, size.indexOf('x')));
+		int height = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+
+		Random random = new Random(42);
+		int[] row = new int[width];
+		BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int r = 255 * x / width;
+				int g = 255 * y / height;
+				int b = 255 - (r + g) / 2;
+				int noise = random.nextInt(32) - 16;
+
+				row[x] = clamp(r + noise) << 16 | clamp(g + noise) << 8 | clamp(b + noise);
+			}
+			rgb.setRGB(0, y, width, 1, row, 0, width);
+		}
+
+		int imageType = BufferedImage.class.getField(type).getInt(null);
+		if (imageType == BufferedImage.TYPE_INT_RGB)
+			return rgb;
+
+		BufferedImage image = new BufferedImage(width, height, imageType);
+		Graphics2D g = image.createGraphics();
+		g.drawImage(rgb, 0, 0, null);
+		g.dispose();
+
+		return image;
+	}
+
+	/**
+	 * Gets a bundled font by the name of its constant in AsciiFont
+	 */
+	static AsciiFont font(String name) throws ReflectiveOperationException {
+		return (AsciiFont) AsciiFont.class.getField(name).get(null);
+	}
+
+	private static int clamp(int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+}
@@ -2,6 +2,7 @@ package asciipanel;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
@@ -60,6 +61,13 @@ public class AsciiFont {
 	
 	private BufferedImage[] glyphs;
 
+	// computed on first use by computeGlyphMasks()
+	private volatile byte[][] glyphMasks;
+
+	// computed on first use by computeDensities(); densityGlyphs is assigned last
+	private int[] glyphDensities;
+	private volatile int[] densityGlyphs;
+
 	/**
 	 * Gets font glyph width in pixels.
 	 * 
@@ -88,6 +96,119 @@ public class AsciiFont {
 		return glyphs[i];
 	}
 
+	/**
+	 * Returns the density of the glyph corresponding to the given ASCII character
+	 * code, that is the fraction of its pixels that are not black, scaled to the
+	 * range from 0 to 255.
+	 * 
+	 * Densities are computed the first time they are needed and then cached.
+	 * 
+	 * @param i an ASCII character code between 0 and 255
+	 * @return the density of the glyph, between 0 and 255
+	 */
+	public int getGlyphDensity(int i) {
+		if (densityGlyphs == null)
+			computeDensities();
+		return glyphDensities[i];
+	}
+
+	/**
+	 * Returns the glyph whose density is the highest not greater than the given
+	 * level. When several glyphs have the same density, the one with the lowest
+	 * character code is returned.
+	 * 
+	 * The table used for the lookup is computed the first time it is needed and
+	 * then cached.
+	 * 
+	 * @param level a density level between 0 and 255
+	 * @return an ASCII character code between 0 and 255, or 0 if no glyph is
+	 *         sparse enough
+	 */
+	public int getGlyphForDensity(int level) {
+		int[] table = densityGlyphs;
+		if (table == null) {
+			computeDensities();
+			table = densityGlyphs;
+		}
+		return table[level];
+	}
+
+	/**
+	 * Returns the mask of the glyph corresponding to the given ASCII character code,
+	 * that is an array with one byte for each pixel of the glyph in row-major order,
+	 * equal to 1 where the pixel is drawn with the foreground color and to 0 where
+	 * it is drawn with the background color.
+	 * 
+	 * Masks are computed the first time they are needed and then cached.
+	 * 
+	 * @param i an ASCII character code between 0 and 255
+	 * @return the mask of the glyph, which must not be modified
+	 */
+	public byte[] getGlyphMask(int i) {
+		byte[][] masks = glyphMasks;
+		if (masks == null) {
+			computeGlyphMasks();
+			masks = glyphMasks;
+		}
+		return masks[i];
+	}
+
+	private synchronized void computeGlyphMasks() {
+		if (glyphMasks != null)
+			return;
+
+		byte[][] masks = new byte[256][];
+
+		for (int i = 0; i < 256; ++i) {
+			int w = glyphs[i].getWidth();
+			int h = glyphs[i].getHeight();
+			int[] pixels = glyphs[i].getRGB(0, 0, w, h, null, 0, w);
+
+			// the same pixels that count for the density of the glyph
+			masks[i] = new byte[w * h];
+			for (int j = 0; j < pixels.length; ++j)
+				if ((pixels[j] & 0xFFFFFF) != 0)
+					masks[i][j] = 1;
+		}
+
+		glyphMasks = masks;
+	}
+
+	private synchronized void computeDensities() {
+		if (densityGlyphs != null)
+			return;
+
+		int[] densities = new int[256];
+		int[] table = new int[256];
+		Arrays.fill(table, -1);
+
+		for (int i = 0; i < 256; ++i) {
+			int w = glyphs[i].getWidth();
+			int h = glyphs[i].getHeight();
+			int[] pixels = glyphs[i].getRGB(0, 0, w, h, null, 0, w);
+
+			int lit = 0;
+			for (int c : pixels)
+				if ((c & 0xFFFFFF) != 0)
+					++lit;
+
+			densities[i] = (int) ((float) lit / (float) (w * h) * 255.f);
+			if (table[densities[i]] < 0)
+				table[densities[i]] = i;
+		}
+
+		// levels without a glyph of that exact density use the nearest lower one
+		int glyph = 0;
+		for (int level = 0; level < 256; ++level) {
+			if (table[level] >= 0)
+				glyph = table[level];
+			table[level] = glyph;
+		}
+
+		glyphDensities = densities;
+		densityGlyphs = table;
+	}
+
 	/**
 	 * Class constructor
 	 * 
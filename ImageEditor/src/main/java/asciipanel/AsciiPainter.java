@@ -1,6 +1,8 @@
 package asciipanel;
 
 import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Arrays;
 
 /**
  * An instance of AsciiPainter exposes methods to draw graphics into an AsciiRaster instance,
@@ -15,6 +17,9 @@ import java.awt.Color;
  * backgroundColor). When drawing methods are invoked, the drawings will appear at the position
  * of the pen and with the colors of the pen. 
  * 
+ * The painter keeps track of the area of the surface that has been modified, called the
+ * dirty region, so that views displaying the surface only need to update that area.
+ * 
  * @author Lorenzo Bianchi
  */
 public class AsciiPainter {
@@ -26,6 +31,24 @@ public class AsciiPainter {
 	private AsciiBrush activeBrush;
 	private int penX;
 	private int penY;
+	
+	// bounds of the dirty region in cell coordinates (right and bottom are excluded);
+	// the region is empty when dirtyLeft >= dirtyRight
+	private int dirtyLeft = Integer.MAX_VALUE;
+	private int dirtyTop = Integer.MAX_VALUE;
+	private int dirtyRight = Integer.MIN_VALUE;
+	private int dirtyBottom = Integer.MIN_VALUE;
+	
+	private RasterDelta delta;
+
+	// state of the flood fill in progress, see floodFill
+	private char fillChar;
+	private int fillFg;
+	private int fillBg;
+	private boolean fillMatchColors;
+	private char fillOldChar;
+	private int fillOldFg;
+	private int fillOldBg;
 
 	/**
 	 * Gets the instance of AsciiRaster where the painter draws.
@@ -130,6 +153,50 @@ public class AsciiPainter {
 		this.penY = penY;
 	}
 	
+	/**
+	 * Gets the smallest rectangle, in cell coordinates, that contains all the cells
+	 * modified by this painter since its creation or since the last call to
+	 * resetDirtyRegion.
+	 * 
+	 * @return a new Rectangle instance, or null if no cell has been modified
+	 */
+	public Rectangle getDirtyRegion() {
+		if (dirtyLeft >= dirtyRight)
+			return null;
+
+		return new Rectangle(dirtyLeft, dirtyTop, dirtyRight - dirtyLeft, dirtyBottom - dirtyTop);
+	}
+	
+	/**
+	 * Empties the dirty region, so that subsequent calls to getDirtyRegion only
+	 * report cells modified from now on.
+	 */
+	public void resetDirtyRegion() {
+		dirtyLeft = Integer.MAX_VALUE;
+		dirtyTop = Integer.MAX_VALUE;
+		dirtyRight = Integer.MIN_VALUE;
+		dirtyBottom = Integer.MIN_VALUE;
+	}
+	
+	/**
+	 * Gets the delta where the painter records the changes it makes to the surface
+	 * 
+	 * @return a delta or null if changes are not recorded
+	 */
+	public RasterDelta getDelta() {
+		return delta;
+	}
+	
+	/**
+	 * Sets the delta where the painter records the changes it makes to the surface.
+	 * Before modifying a cell, the painter records its previous content into the delta.
+	 * 
+	 * @param delta a delta created for the surface of this painter, or null to stop recording
+	 */
+	public void setDelta(RasterDelta delta) {
+		this.delta = delta;
+	}
+	
 	/**
 	 * Create a new painter instance with the specified surface.
 	 * 
@@ -263,13 +330,9 @@ public class AsciiPainter {
 		// when left == right or top == bottom, at least one side of
 		// the rectangle has length 0, so we can skip the loop entirely
 		if (left < right && top < bottom) {
-			for (int x = left; x < right; ++x) {
-				for (int y = top; y < bottom; ++y) {
-					surface.getChars()[x][y] = character;
-					surface.getBackcolors()[x][y] = backgroundColor;
-					surface.getForecolors()[x][y] = foregroundColor;
-				}
-			}
+			int fg = rgb(foregroundColor), bg = rgb(backgroundColor);
+
+			setRect(left, top, right, bottom, character, fg, bg);
 		}
 
 		// move the pen to endX, endY
@@ -314,9 +377,7 @@ public class AsciiPainter {
 
 		if (penX >= 0 && penX < surface.getWidth() &&
 				penY >= 0 && penY < surface.getHeight()) {
-			surface.getChars()[penX][penY] = character;
-			surface.getBackcolors()[penX][penY] = backgroundColor;
-			surface.getForecolors()[penX][penY] = foregroundColor;
+			setCell(penX, penY, character, rgb(foregroundColor), rgb(backgroundColor));
 		}
 
 		return move(1, 0);
@@ -373,45 +434,116 @@ public class AsciiPainter {
 	 * @return this for convenient chaining of method calls
 	 */
 	public AsciiPainter fill(char character) {
+		return fill(character, false);
+	}
+	
+	/**
+	 * Runs a flood-fill algorithm starting from the position of the pen, filling a contiguous
+	 * area of the surface with the specified character and current background and foreground
+	 * colors. The fill algorithm stops as soon as it finds a cell that does not match the one
+	 * in the starting position: cells match when they have the same character or, if
+	 * matchColors is true, the same character and the same colors.
+	 * 
+	 * If the current position of the pen is outside the surface area, the algorithm starts
+	 * from the nearest position that is inside the area.
+	 * 
+	 * @param character   character used to fill
+	 * @param matchColors when true, cells must also have the same colors as the starting cell
+	 * @return this for convenient chaining of method calls
+	 */
+	public AsciiPainter fill(char character, boolean matchColors) {
+		if (surface.getWidth() == 0 || surface.getHeight() == 0)
+			return this;
+
 		int startX = clamp(penX, 0, surface.getWidth() - 1);
 		int startY = clamp(penY, 0, surface.getHeight() - 1);
 		
-		floodFill(character, startX, startY);
+		floodFill(character, matchColors, startX, startY);
 		
 		return this;
 	}
 	
 	/**
-	 * Recursive flood fill implementation
+	 * Scanline flood fill implementation. Each seed taken from the stack is extended to the
+	 * whole span of matching cells in its row, the span is filled and a seed is pushed for each
+	 * run of matching cells in the rows above and below it.
+	 * 
+	 * Cells that already have the fill character and colors never match, so filled
+	 * cells are not visited again.
+	 */
+	private void floodFill(char character, boolean matchColors, int startX, int startY) {
+		int width = surface.getWidth();
+		int height = surface.getHeight();
+		int fg = rgb(foregroundColor), bg = rgb(backgroundColor);
+
+		fillChar = character;
+		fillFg = fg;
+		fillBg = bg;
+		fillMatchColors = matchColors;
+		fillOldChar = surface.getCharAt(startX, startY);
+		fillOldFg = surface.getFgRgb(startX, startY);
+		fillOldBg = surface.getBgRgb(startX, startY);
+
+		// seeds are stored as y * width + x, which does not fit an int on huge tiled rasters
+		long[] stack = new long[64];
+		int size = 0;
+		stack[size++] = (long) startY * width + startX;
+
+		while (size > 0) {
+			long seed = stack[--size];
+			int y = (int) (seed / width);
+			int x = (int) (seed % width);
+
+			if (!matchesFill(x, y))
+				continue;
+
+			int left = x;
+			while (left > 0 && matchesFill(left - 1, y))
+				--left;
+
+			int right = x + 1;
+			while (right < width && matchesFill(right, y))
+				++right;
+
+			setRow(y, left, right, character, fg, bg);
+
+			// the fill usually proceeds downwards, so the rows above are mostly filled
+			// already and the surface can release the memory of the uniform areas
+			surface.rowWritten(y, left, right);
+
+			for (int ny = y - 1; ny <= y + 1; ny += 2) {
+				if (ny < 0 || ny >= height)
+					continue;
+
+				boolean inRun = false;
+				for (int nx = left; nx < right; ++nx) {
+					boolean match = matchesFill(nx, ny);
+					if (match && !inRun) {
+						if (size == stack.length)
+							stack = Arrays.copyOf(stack, size * 2);
+						stack[size++] = (long) ny * width + nx;
+					}
+					inRun = match;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a cell belongs to the area being filled by floodFill
 	 */
-	private void floodFill(char character, int x, int y) {
-		char oldchar = surface.getChars()[x][y];
-		Color oldBg = surface.getBackcolors()[x][y];
-		Color oldFg = surface.getForecolors()[x][y];
+	private boolean matchesFill(int x, int y) {
+		char ch = surface.getCharAt(x, y);
+		if (ch != fillOldChar)
+			return false;
 
-		if (oldchar == character && oldBg == backgroundColor && oldFg == foregroundColor)
-			return;
+		int fg = surface.getFgRgb(x, y);
+		int bg = surface.getBgRgb(x, y);
 
-		surface.getChars()[x][y] = character;
-		surface.getBackcolors()[x][y] = backgroundColor;
-		surface.getForecolors()[x][y] = foregroundColor;
+		if (fillMatchColors && (fg != fillOldFg || bg != fillOldBg))
+			return false;
 
-		if (x < surface.getWidth() - 1) {
-			if (surface.getChars()[x + 1][y] == oldchar)
-				floodFill(character, x + 1, y);
-		}
-		if (x > 0) {
-			if (surface.getChars()[x - 1][y] == oldchar)
-				floodFill(character, x - 1, y);
-		}
-		if (y > 0) {
-			if (surface.getChars()[x][y - 1] == oldchar)
-				floodFill(character, x, y - 1);
-		}
-		if (y < surface.getHeight() - 1) {
-			if (surface.getChars()[x][y + 1] == oldchar)
-				floodFill(character, x, y + 1);
-		}
+		return ch != fillChar || fg != fillFg || bg != fillBg;
 	}
 	
 	/**
@@ -447,12 +579,11 @@ public class AsciiPainter {
 		
 		// skip loops if destination area is zero-sized
 		if (clipLeft < clipRight && clipTop < clipBottom) {
-			for (int x = clipLeft; x < clipRight; ++x) {
-				for (int y = clipTop; y < clipBottom; ++y) {
-					if (!transparent || raster.getChars()[x - left][y - top] != 0) {
-						surface.getChars()[x][y] = raster.getChars()[x - left][y - top];
-						surface.getBackcolors()[x][y] = raster.getBackcolors()[x - left][y - top];
-						surface.getForecolors()[x][y] = raster.getForecolors()[x - left][y - top];
+			for (int y = clipTop; y < clipBottom; ++y) {
+				for (int x = clipLeft; x < clipRight; ++x) {
+					char ch = raster.getCharAt(x - left, y - top);
+					if (!transparent || ch != 0) {
+						setCell(x, y, ch, raster.getFgRgb(x - left, y - top), raster.getBgRgb(x - left, y - top));
 					}
 				}
 			}
@@ -496,12 +627,13 @@ public class AsciiPainter {
 		
 		// skip loops if destination area is zero-sized
 		if (clipLeft < clipRight && clipTop < clipBottom) {
-			for (int x = clipLeft; x < clipRight; ++x) {
-				for (int y = clipTop; y < clipBottom; ++y) {
-					if (!transparent || raster.getChars()[x - left][y - top] != 0) {
-						surface.getChars()[x][y] = raster.getChars()[x - left][y - top];
-						surface.getBackcolors()[x][y] = backgroundColor;
-						surface.getForecolors()[x][y] = foregroundColor;
+			int fg = rgb(foregroundColor), bg = rgb(backgroundColor);
+
+			for (int y = clipTop; y < clipBottom; ++y) {
+				for (int x = clipLeft; x < clipRight; ++x) {
+					char ch = raster.getCharAt(x - left, y - top);
+					if (!transparent || ch != 0) {
+						setCell(x, y, ch, fg, bg);
 					}
 				}
 			}
@@ -623,6 +755,100 @@ public class AsciiPainter {
 		return drawLineTo(penX + deltaX, penY + deltaY);
 	}
 	
+	/**
+	 * Writes a character at the specified position with current background and
+	 * foreground colors, without moving the pen. This method is meant to be used
+	 * by brushes to draw the points of a line.
+	 * 
+	 * If the position is outside the surface area, nothing is drawn.
+	 * 
+	 * @param x			horizontal coordinate of the cell
+	 * @param y			vertical coordinate of the cell
+	 * @param character the character to write
+	 * @return this for convenient chaining of method calls
+	 */
+	public AsciiPainter putCell(int x, int y, char character) {
+		if (x >= 0 && x < surface.getWidth() && y >= 0 && y < surface.getHeight())
+			setCell(x, y, character, rgb(foregroundColor), rgb(backgroundColor));
+
+		return this;
+	}
+	
+	/**
+	 * Replaces the character at the specified position, preserving the colors of the
+	 * cell and without moving the pen. This method is meant to be used by brushes to
+	 * draw the points of a line.
+	 * 
+	 * If the position is outside the surface area, nothing is drawn.
+	 * 
+	 * @param x			horizontal coordinate of the cell
+	 * @param y			vertical coordinate of the cell
+	 * @param character the character to write
+	 * @return this for convenient chaining of method calls
+	 */
+	public AsciiPainter putChar(int x, int y, char character) {
+		if (x >= 0 && x < surface.getWidth() && y >= 0 && y < surface.getHeight())
+			setCell(x, y, character, surface.getFgRgb(x, y), surface.getBgRgb(x, y));
+
+		return this;
+	}
+	
+	/**
+	 * Writes a span of cells of a row of the surface, from left (inclusive) to right
+	 * (exclusive), in the same way as setCell.
+	 */
+	void setRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+		if (delta != null)
+			delta.recordRect(surface, left, y, right, y + 1);
+
+		surface.fillRow(y, left, right, character, fgRgb, bgRgb);
+		addDirtyRect(left, y, right, y + 1);
+	}
+
+	/**
+	 * Writes all the cells of the surface inside a rectangle, in the same way as setCell.
+	 * The right and bottom coordinates are excluded.
+	 */
+	void setRect(int left, int top, int right, int bottom, char character, int fgRgb, int bgRgb) {
+		if (delta != null)
+			delta.recordRect(surface, left, top, right, bottom);
+
+		surface.fillRect(left, top, right, bottom, character, fgRgb, bgRgb);
+		addDirtyRect(left, top, right, bottom);
+	}
+
+	private void addDirtyRect(int left, int top, int right, int bottom) {
+		if (left < dirtyLeft)
+			dirtyLeft = left;
+		if (right > dirtyRight)
+			dirtyRight = right;
+		if (top < dirtyTop)
+			dirtyTop = top;
+		if (bottom > dirtyBottom)
+			dirtyBottom = bottom;
+	}
+
+	/**
+	 * Writes a cell of the surface, records its previous content into the delta
+	 * (if any) and adds it to the dirty region. All changes to the surface go
+	 * through this method or setRow.
+	 */
+	void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+		if (delta != null)
+			delta.record(x, y, surface.getCharAt(x, y), surface.getFgRgb(x, y), surface.getBgRgb(x, y));
+
+		surface.setCell(x, y, character, fgRgb, bgRgb);
+
+		if (x < dirtyLeft)
+			dirtyLeft = x;
+		if (x >= dirtyRight)
+			dirtyRight = x + 1;
+		if (y < dirtyTop)
+			dirtyTop = y;
+		if (y >= dirtyBottom)
+			dirtyBottom = y + 1;
+	}
+	
 	/**
 	 * Restricts an arbitrary integer n to the interval [min, max]. When n is inside
 	 * [min, max], it returns n. When n is below min, it returns min. When n is above max,
@@ -636,4 +862,15 @@ public class AsciiPainter {
 	private static int clamp(int n, int min, int max) {
 		return Math.min(Math.max(n, min), max);
 	}
+	
+	/**
+	 * Converts a pen color to the ARGB format used by AsciiRaster. A null color
+	 * is converted to the default color of the raster.
+	 * 
+	 * @param color a color or null
+	 * @return the color in ARGB format
+	 */
+	private static int rgb(Color color) {
+		return color == null ? AsciiRaster.DEFAULT_RGB : color.getRGB();
+	}
 }
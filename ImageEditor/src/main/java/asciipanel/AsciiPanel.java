@@ -1,15 +1,17 @@
 package asciipanel;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.LookupOp;
-import java.awt.image.ShortLookupTable;
+import java.awt.image.DataBufferInt;
+import java.util.BitSet;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JPanel;
 
@@ -22,10 +24,41 @@ import javax.swing.JPanel;
 public class AsciiPanel extends JPanel implements Observer {
 	private static final long serialVersionUID = -4167851861147593092L;
 
-	private Image offscreenBuffer;
+	// areas of stale cells with fewer cells are rendered by the event dispatch thread alone
+	private static final int MIN_PARALLEL_CELLS = 8192;
+
+	// approximate number of cells of a band rendered by a single thread
+	private static final int MIN_BAND_CELLS = 2048;
+
+	// number of glyphs of a font, and the one displayed for characters without a glyph
+	private static final int GLYPH_COUNT = 256;
+	private static final int MISSING_GLYPH = '?';
+
+	// maximum number of threads rendering large areas of stale cells
+	private static final int MAX_RENDER_THREADS = 4;
+
+	// the pool of all panels, separate from the common pool so that rendering does not
+	// wait behind long tasks such as image conversions; its threads are daemon threads
+	private static final ForkJoinPool RENDER_POOL = new ForkJoinPool(
+			Math.min(Runtime.getRuntime().availableProcessors(), MAX_RENDER_THREADS));
+
+	private BufferedImage offscreenBuffer;
 	private Graphics offscreenGraphics;
 	
+	// the cells drawn into the offscreen buffer, whose top left corner is drawn at (0, 0):
+	// the visible part of the raster and a margin around it, so that the size of the
+	// buffer does not depend on the size of the raster
+	private Rectangle bufferCells = new Rectangle();
+	
+	// cells of bufferCells whose image in the offscreen buffer is out of date,
+	// indexed by (y - bufferCells.y) * bufferCells.width + (x - bufferCells.x)
+	private BitSet staleCells = new BitSet();
+	
 	private AsciiPanelModel model;
+	
+	private GlyphCache glyphCache = new GlyphCache();
+
+	private boolean directRendering = true;
 
 	/**
 	 * Gets the current model of the panel
@@ -36,6 +69,43 @@ public class AsciiPanel extends JPanel implements Observer {
 		return model;
 	}
 
+	/**
+	 * Gets the cache of tinted glyphs used to draw the raster
+	 * 
+	 * @return an instance of GlyphCache
+	 */
+	public GlyphCache getGlyphCache() {
+		return glyphCache;
+	}
+
+	/**
+	 * Tells whether cells are drawn by writing pixels directly into the offscreen buffer
+	 * 
+	 * @return true if direct rendering is enabled
+	 * @see #setDirectRendering(boolean)
+	 */
+	public boolean isDirectRendering() {
+		return directRendering;
+	}
+
+	/**
+	 * Chooses how cells are drawn into the offscreen buffer. When direct rendering is
+	 * enabled (the default), the pixels of each cell are written directly into the
+	 * buffer, expanding the glyph mask of the font with the colors of the cell.
+	 * Otherwise each cell is drawn as an image taken from the glyph cache. Cells whose
+	 * foreground color is not opaque are always drawn as images.
+	 * 
+	 * @param directRendering true to write pixels directly into the buffer
+	 */
+	public void setDirectRendering(boolean directRendering) {
+		if (this.directRendering == directRendering)
+			return;
+
+		this.directRendering = directRendering;
+		invalidateCells(bufferCells.x, bufferCells.y, bufferCells.x + bufferCells.width, bufferCells.y + bufferCells.height);
+		repaint();
+	}
+
 	/**
 	 * Sets the model of the panel
 	 * 
@@ -118,6 +188,15 @@ public class AsciiPanel extends JPanel implements Observer {
 	 * It draws the current raster in the panel. When no raster is present, the
 	 * panel is black.
 	 * 
+	 * The raster is not drawn directly: the panel copies an offscreen buffer, after
+	 * updating the cells that changed since they were last drawn. Only the cells that
+	 * intersect the clip area of the graphic context are updated and copied, so the cost
+	 * of painting depends on the visible area and not on the size of the raster.
+	 * 
+	 * The offscreen buffer covers only the visible part of the raster and a margin
+	 * around it. When the panel is scrolled beyond the margin, the buffer is moved
+	 * and drawn again.
+	 * 
 	 * @param g graphic context
 	 */
 	@Override
@@ -125,97 +204,416 @@ public class AsciiPanel extends JPanel implements Observer {
 		if (g == null)
 			throw new NullPointerException();
 		
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+
 		// clear the surface of the panel
 		g.setColor(getBackground());
-		g.fillRect(0, 0, this.getWidth(), this.getHeight());
+		g.fillRect(clip.x, clip.y, clip.width, clip.height);
 		
 		if (model.getRaster() == null)
 			return;
+		
+		AsciiFont font = model.getFont();
+		
+		// cells that intersect the clip area
+		Rectangle cells = pixelRectToCells(clip);
+		if (cells.isEmpty())
+			return;
+		
+		if (!bufferCells.contains(cells))
+			moveBuffer(cells);
+		
+		renderStaleCells(cells.x, cells.y, cells.x + cells.width, cells.y + cells.height);
+		
+		// copy the part of the offscreen buffer inside the clip area
+		int originX = bufferCells.x * font.getWidth();
+		int originY = bufferCells.y * font.getHeight();
+		Rectangle area = clip.intersection(new Rectangle(originX, originY,
+				bufferCells.width * font.getWidth(), bufferCells.height * font.getHeight()));
 
-		for (int x = 0; x < model.getRaster().getWidth(); x++) {
-			for (int y = 0; y < model.getRaster().getHeight(); y++) {
-				Color bg = model.getRaster().getBackcolors()[x][y];
-				Color fg = model.getRaster().getForecolors()[x][y];
-				if (bg == null)
-					bg = Color.BLACK;
-				if (fg == null)
-					fg = Color.BLACK;
-
-				LookupOp op = buildColorLUT(bg, fg);
-				BufferedImage img = op.filter(model.getFont().getGlyph(model.getRaster().getChars()[x][y]), null);
-				offscreenGraphics.drawImage(img, x * model.getFont().getWidth(), y * model.getFont().getHeight(), null);
-			}
+		if (!area.isEmpty()) {
+			g.drawImage(offscreenBuffer,
+					area.x, area.y, area.x + area.width, area.y + area.height,
+					area.x - originX, area.y - originY,
+					area.x - originX + area.width, area.y - originY + area.height, this);
 		}
-		g.drawImage(offscreenBuffer, 0, 0, this);
 	}
-
+	
 	/**
-	 * Create a <code>LookupOp</code> object (lookup table) mapping the original
-	 * pixels to the background and foreground colors, respectively.
-	 * 
-	 * @param bgColor the background color
-	 * @param fgColor the foreground color
-	 * @return the <code>LookupOp</code> object (lookup table)
+	 * Converts a rectangle in pixel coordinates into the rectangle of the cells
+	 * that intersect it, restricted to the raster area.
 	 */
-	private LookupOp buildColorLUT(Color bgColor, Color fgColor) {
-		short[] a = new short[256];
-		short[] r = new short[256];
-		short[] g = new short[256];
-		short[] b = new short[256];
+	private Rectangle pixelRectToCells(Rectangle px) {
+		AsciiFont font = model.getFont();
+		
+		int left = Math.max(px.x / font.getWidth(), 0);
+		int top = Math.max(px.y / font.getHeight(), 0);
+		int right = Math.min((px.x + px.width + font.getWidth() - 1) / font.getWidth(), getWidthInCharacters());
+		int bottom = Math.min((px.y + px.height + font.getHeight() - 1) / font.getHeight(), getHeightInCharacters());
+		
+		return new Rectangle(left, top, Math.max(right - left, 0), Math.max(bottom - top, 0));
+	}
 	
-		byte bga = (byte) (bgColor.getAlpha());
-		byte bgr = (byte) (bgColor.getRed());
-		byte bgg = (byte) (bgColor.getGreen());
-		byte bgb = (byte) (bgColor.getBlue());
+	/**
+	 * Moves the offscreen buffer so that it covers the specified cells, the visible
+	 * part of the raster and a margin around it. All cells of the buffer become stale.
+	 * The buffer image is replaced only when it is too small.
+	 */
+	private void moveBuffer(Rectangle cells) {
+		AsciiFont font = model.getFont();
+		Rectangle visible = pixelRectToCells(getVisibleRect());
+		
+		Rectangle area = new Rectangle(visible);
+		area.grow(visible.width / 4 + 1, visible.height / 4 + 1);
+		area = area.union(cells).intersection(new Rectangle(0, 0, getWidthInCharacters(), getHeightInCharacters()));
+		
+		int width = area.width * font.getWidth();
+		int height = area.height * font.getHeight();
+		
+		if (offscreenBuffer == null || offscreenBuffer.getWidth(null) < width || offscreenBuffer.getHeight(null) < height) {
+			if (offscreenGraphics != null)
+				offscreenGraphics.dispose();
+
+			offscreenBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			offscreenGraphics = offscreenBuffer.getGraphics();
+		}
+		
+		bufferCells = area;
+		staleCells = new BitSet(area.width * area.height);
+		staleCells.set(0, area.width * area.height);
+	}
 	
-		byte fga = (byte) (fgColor.getAlpha());
-		byte fgr = (byte) (fgColor.getRed());
-		byte fgg = (byte) (fgColor.getGreen());
-		byte fgb = (byte) (fgColor.getBlue());
+	/**
+	 * Marks the cells inside the specified rectangle as out of date, so that they
+	 * are drawn again into the offscreen buffer the next time they are painted.
+	 * The rectangle is given in cell coordinates and is clipped to the area of the buffer.
+	 */
+	private void invalidateCells(int left, int top, int right, int bottom) {
+		left = Math.max(left, bufferCells.x);
+		top = Math.max(top, bufferCells.y);
+		right = Math.min(right, bufferCells.x + bufferCells.width);
+		bottom = Math.min(bottom, bufferCells.y + bufferCells.height);
+
+		if (left >= right)
+			return;
+
+		for (int y = top; y < bottom; y++) {
+			int rowStart = (y - bufferCells.y) * bufferCells.width - bufferCells.x;
+			staleCells.set(rowStart + left, rowStart + right);
+		}
+	}
 	
-		for (int i = 0; i < 256; i++) {
-			if (i == 0) {
-				a[i] = bga;
-				r[i] = bgr;
-				g[i] = bgg;
-				b[i] = bgb;
-			} else {
-				a[i] = fga;
-				r[i] = fgr;
-				g[i] = fgg;
-				b[i] = fgb;
+	/**
+	 * Draws into the offscreen buffer the out of date cells inside the specified rectangle.
+	 * The rectangle is given in cell coordinates and is clipped to the area of the buffer.
+	 * 
+	 * With direct rendering, large areas are split in bands of rows that are rendered in
+	 * parallel by the calling thread and the render pool, each one into its own rows of
+	 * the buffer.
+	 */
+	private void renderStaleCells(int left, int top, int right, int bottom) {
+		left = Math.max(left, bufferCells.x);
+		top = Math.max(top, bufferCells.y);
+		right = Math.min(right, bufferCells.x + bufferCells.width);
+		bottom = Math.min(bottom, bufferCells.y + bufferCells.height);
+
+		if (left >= right || top >= bottom)
+			return;
+
+		if (directRendering && model.getRaster() != null && RENDER_POOL.getParallelism() > 1
+				&& (right - left) * (bottom - top) >= MIN_PARALLEL_CELLS) {
+			renderStaleCellsInParallel(left, top, right, bottom);
+			return;
+		}
+
+		for (int y = top; y < bottom; y++) {
+			// index of the bit of column 0, which may lie outside the buffer
+			int rowStart = (y - bufferCells.y) * bufferCells.width - bufferCells.x;
+			int end = rowStart + right;
+
+			// draw each run of consecutive stale cells in the row
+			int from = staleCells.nextSetBit(rowStart + left);
+			while (from >= 0 && from < end) {
+				int to = Math.min(staleCells.nextClearBit(from), end);
+				renderCells(from - rowStart, y, to - rowStart, y + 1);
+				staleCells.clear(from, to);
+				from = staleCells.nextSetBit(to);
 			}
 		}
-	
-		short[][] table = { r, g, b, a };
-		return new LookupOp(new ShortLookupTable(0, table), null);
 	}
 	
+	/**
+	 * Renders the stale cells of the specified rectangle with the help of the render pool.
+	 * The rectangle is split in bands of rows, which are taken in turn by the calling
+	 * thread and by the threads of the pool, so the calling thread never waits for a band
+	 * that has not started: when the pool is busy, it renders all of them itself. The
+	 * tasks only read the set of stale cells and skip the cells that must be drawn as
+	 * images, which are drawn afterwards by the calling thread.
+	 */
+	private void renderStaleCellsInParallel(int left, int top, int right, int bottom) {
+		int[] pixels = ((DataBufferInt) offscreenBuffer.getRaster().getDataBuffer()).getData();
+		int bandRows = Math.max(1, MIN_BAND_CELLS / (right - left));
+
+		RenderBands bands = new RenderBands(pixels, left, right, top, bottom, bandRows);
+		for (int i = Math.min(RENDER_POOL.getParallelism(), bands.count - 1); i > 0; --i)
+			RENDER_POOL.execute(bands);
+
+		bands.run();
+		bands.awaitCompletion();
+
+		for (int y = top; y < bottom; y++) {
+			int rowStart = (y - bufferCells.y) * bufferCells.width - bufferCells.x;
+
+			if (bands.skipped) {
+				for (int x = staleCells.nextSetBit(rowStart + left); x >= 0 && x < rowStart + right; x = staleCells.nextSetBit(x + 1))
+					if (!isOpaqueCell(x - rowStart, y))
+						renderCells(x - rowStart, y, x - rowStart + 1, y + 1);
+			}
+
+			staleCells.clear(rowStart + left, rowStart + right);
+		}
+	}
+
+	/**
+	 * Renders the stale cells of a rectangle directly into the pixels of the offscreen
+	 * buffer, one band of rows at a time. Every thread running it takes the next band
+	 * that nobody has taken yet, until there are none left.
+	 */
+	private class RenderBands implements Runnable {
+		private final int[] pixels;
+		private final int left;
+		private final int right;
+		private final int top;
+		private final int bottom;
+		private final int bandRows;
+		private final int count;
+
+		private final AtomicInteger nextBand = new AtomicInteger();
+		private final CountDownLatch completed;
+
+		// set when some cells were skipped because they are not opaque
+		private volatile boolean skipped;
+
+		RenderBands(int[] pixels, int left, int right, int top, int bottom, int bandRows) {
+			this.pixels = pixels;
+			this.left = left;
+			this.right = right;
+			this.top = top;
+			this.bottom = bottom;
+			this.bandRows = bandRows;
+
+			count = (bottom - top + bandRows - 1) / bandRows;
+			completed = new CountDownLatch(count);
+		}
+
+		@Override
+		public void run() {
+			for (int band = nextBand.getAndIncrement(); band < count; band = nextBand.getAndIncrement()) {
+				try {
+					renderBand(top + band * bandRows, Math.min(top + (band + 1) * bandRows, bottom));
+				} finally {
+					completed.countDown();
+				}
+			}
+		}
+
+		/**
+		 * Waits for the bands taken by other threads, which are the only ones left
+		 * once run() returns on the calling thread
+		 */
+		void awaitCompletion() {
+			boolean interrupted = false;
+
+			while (true) {
+				try {
+					completed.await();
+					break;
+				} catch (InterruptedException ex) {
+					// the other threads are still writing into the buffer
+					interrupted = true;
+				}
+			}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		private void renderBand(int bandTop, int bandBottom) {
+			for (int y = bandTop; y < bandBottom; y++) {
+				int rowStart = (y - bufferCells.y) * bufferCells.width - bufferCells.x;
+				int end = rowStart + right;
+
+				int from = staleCells.nextSetBit(rowStart + left);
+				while (from >= 0 && from < end) {
+					int to = Math.min(staleCells.nextClearBit(from), end);
+					if (blitCells(pixels, y, from - rowStart, to - rowStart))
+						skipped = true;
+					from = staleCells.nextSetBit(to);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the opaque cells of a run of cells in a row directly into the pixels of
+	 * the offscreen buffer. The run must lie inside the raster and the buffer.
+	 * 
+	 * @return true if some cells of the run were skipped because they are not opaque
+	 */
+	private boolean blitCells(int[] pixels, int y, int left, int right) {
+		AsciiRaster raster = model.getRaster();
+		AsciiRaster overlay = model.getOverlay();
+		AsciiFont font = model.getFont();
+		int stride = offscreenBuffer.getWidth();
+		boolean skipped = false;
+
+		for (int x = left; x < right; x++) {
+			AsciiRaster source = overlay != null && overlay.getCharAt(x, y) != 0 ? overlay : raster;
+			int fgRgb = source.getFgRgb(x, y);
+
+			if ((fgRgb >>> 24) != 0xFF) {
+				skipped = true;
+				continue;
+			}
+
+			int offset = (y - bufferCells.y) * font.getHeight() * stride + (x - bufferCells.x) * font.getWidth();
+			blitGlyph(pixels, offset, stride, font, glyph(source.getCharAt(x, y)), fgRgb, source.getBgRgb(x, y));
+		}
+
+		return skipped;
+	}
+
+	/**
+	 * Tells whether the displayed content of a cell has an opaque foreground color,
+	 * so that it can be written directly into the pixels of the buffer
+	 */
+	private boolean isOpaqueCell(int x, int y) {
+		AsciiRaster overlay = model.getOverlay();
+		AsciiRaster source = overlay != null && overlay.getCharAt(x, y) != 0 ? overlay : model.getRaster();
+		return (source.getFgRgb(x, y) >>> 24) == 0xFF;
+	}
+
+	/**
+	 * Draws the cells of the raster inside the specified rectangle into the offscreen buffer.
+	 * Where the overlay of the model is not transparent, its cells are drawn instead.
+	 * The rectangle is given in cell coordinates and is clipped to the raster area.
+	 * 
+	 * @param left	 horizontal coordinate of the first column to draw
+	 * @param top	 vertical coordinate of the first row to draw
+	 * @param right	 horizontal coordinate of the column after the last one to draw
+	 * @param bottom vertical coordinate of the row after the last one to draw
+	 */
+	private void renderCells(int left, int top, int right, int bottom) {
+		AsciiRaster raster = model.getRaster();
+		AsciiRaster overlay = model.getOverlay();
+		AsciiFont font = model.getFont();
+
+		if (raster == null)
+			return;
+		
+		left = Math.max(left, 0);
+		top = Math.max(top, 0);
+		right = Math.min(right, raster.getWidth());
+		bottom = Math.min(bottom, raster.getHeight());
+
+		// the buffer is TYPE_INT_RGB, so its pixels are stored in a single int array
+		int[] pixels = directRendering ? ((DataBufferInt) offscreenBuffer.getRaster().getDataBuffer()).getData() : null;
+		int stride = offscreenBuffer.getWidth();
+
+		for (int y = top; y < bottom; y++) {
+			for (int x = left; x < right; x++) {
+				AsciiRaster source = overlay != null && overlay.getCharAt(x, y) != 0 ? overlay : raster;
+				int character = glyph(source.getCharAt(x, y));
+				int fgRgb = source.getFgRgb(x, y);
+				int bgRgb = source.getBgRgb(x, y);
+				int px = (x - bufferCells.x) * font.getWidth();
+				int py = (y - bufferCells.y) * font.getHeight();
+
+				// a translucent glyph is blended with the buffer, which only drawImage does
+				if (pixels != null && (fgRgb >>> 24) == 0xFF) {
+					blitGlyph(pixels, py * stride + px, stride, font, character, fgRgb, bgRgb);
+				} else {
+					BufferedImage img = glyphCache.getTintedGlyph(font, character, fgRgb, bgRgb);
+					offscreenGraphics.drawImage(img, px, py, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the glyph that displays a character of a raster. Rasters can hold any
+	 * character, but fonts only have glyphs for codes between 0 and 255, so the other
+	 * characters are displayed as MISSING_GLYPH.
+	 */
+	private static int glyph(char character) {
+		return character < GLYPH_COUNT ? character : MISSING_GLYPH;
+	}
+
+	/**
+	 * Writes the pixels of a glyph into an array of pixels, using the foreground
+	 * color where the mask of the glyph is set and the background color elsewhere.
+	 * 
+	 * @param pixels the pixels of the image, in row-major order
+	 * @param offset index of the pixel where the top left corner of the glyph is written
+	 * @param stride number of pixels in a row of the image
+	 * @param font	 the font the glyph belongs to
+	 * @param glyph	 an ASCII character code between 0 and 255
+	 * @param fgRgb	 the foreground color in ARGB format
+	 * @param bgRgb	 the background color in ARGB format
+	 */
+	private static void blitGlyph(int[] pixels, int offset, int stride, AsciiFont font, int glyph, int fgRgb, int bgRgb) {
+		byte[] mask = font.getGlyphMask(glyph);
+		int width = font.getWidth();
+		int height = font.getHeight();
+
+		fgRgb &= 0xFFFFFF;
+		bgRgb &= 0xFFFFFF;
+
+		for (int gy = 0, m = 0; gy < height; ++gy, offset += stride) {
+			for (int i = offset, end = offset + width; i < end; ++i, ++m)
+				pixels[i] = mask[m] != 0 ? fgRgb : bgRgb;
+		}
+	}
+
 	private void updateSize() {
 		Dimension panelSize = new Dimension(model.getFont().getWidth() * getWidthInCharacters(), model.getFont().getHeight() * getHeightInCharacters());
 		setPreferredSize(panelSize);
 
 		if (model.getRaster() == null) {
-			offscreenBuffer = null;
-			offscreenGraphics = null;
-		} else {
 			if (offscreenGraphics != null)
 				offscreenGraphics.dispose();
 
-			offscreenBuffer = new BufferedImage(panelSize.width, panelSize.height, BufferedImage.TYPE_INT_RGB);
-			offscreenGraphics = offscreenBuffer.getGraphics();
+			offscreenBuffer = null;
+			offscreenGraphics = null;
 		}
+		
+		// the buffer is placed and drawn again by the next paint
+		bufferCells = new Rectangle();
+		staleCells = new BitSet();
 	}
 
 	/**
 	 * Receives and handles updates from the model.
 	 * 
 	 * @param o   the observable that sent the update
-	 * @param arg should be a string specifying the property that changed
+	 * @param arg should be a string specifying the property that changed,
+	 *            or a rectangle specifying the cells that changed
 	 * @see AsciiPanelModel
 	 */
 	@Override
 	public void update(Observable o, Object arg) {
+		if (arg instanceof Rectangle) {
+			Rectangle cells = (Rectangle) arg;
+			AsciiFont font = model.getFont();
+
+			invalidateCells(cells.x, cells.y, cells.x + cells.width, cells.y + cells.height);
+			repaint(cells.x * font.getWidth(), cells.y * font.getHeight(),
+					cells.width * font.getWidth(), cells.height * font.getHeight());
+			return;
+		}
+
 		if (arg == null || !(arg instanceof String))
 			return;
 		
@@ -226,6 +624,7 @@ public class AsciiPanel extends JPanel implements Observer {
 			repaint();
 			break;
 		case AsciiPanelModel.RASTER_CONTENT:
+			invalidateCells(0, 0, getWidthInCharacters(), getHeightInCharacters());
 			repaint();
 			break;
 		}
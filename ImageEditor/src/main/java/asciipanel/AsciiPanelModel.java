@@ -3,8 +3,13 @@
  */
 package asciipanel;
 
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.util.Observable;
 
+import javax.swing.Timer;
+
 /**
  * This class models the state of an AsciiPanel instance, that is
  * provides a raster and a font and notifies changes to observers.
@@ -15,6 +20,24 @@ import java.util.Observable;
  * preceded by a call to beginPaint and followed by a call to
  * endPaint, otherwise no notification is sent.
  * 
+ * Observers receive the name of the property that changed as argument of
+ * the notification, except when endPaint reports a change limited to a part of
+ * the raster: in that case the argument is a Rectangle containing the modified
+ * cells, in cell coordinates.
+ * 
+ * Changes limited to a part of the raster are not notified immediately: they are
+ * merged, and at most one notification for the union of their regions is sent in
+ * each frame, at the frame rate of the model, by a timer running on the event
+ * dispatch thread. This way painting many cells, one mouse event at a time, does
+ * not cause more repaints than the display can show. Changes of properties are
+ * notified immediately, and discard the pending notification.
+ * 
+ * The model also provides an overlay: a transparent raster of the same size,
+ * displayed on top of the raster, where tools can draw a preview of their result
+ * without modifying the raster. Cells of the overlay whose character is 0 are
+ * transparent. Changes to the overlay are notified in the same way as changes to
+ * the raster.
+ * 
  * @author Lorenzo Bianchi
  */
 public class AsciiPanelModel extends Observable {
@@ -34,8 +57,24 @@ public class AsciiPanelModel extends Observable {
 	 */
 	public static final String FONT = "font";
 
+	/**
+	 * The default maximum number of notifications of changed regions per second
+	 */
+	public static final int DEFAULT_FRAME_RATE = 60;
+
 	private AsciiRaster raster;
 	private AsciiFont font;
+
+	private AsciiRaster overlay;
+
+	// the cells painted into the overlay since it was last cleared, or null if none
+	private Rectangle overlayRegion;
+
+	private int frameRate = DEFAULT_FRAME_RATE;
+
+	// the union of the changed regions not notified yet, or null if none
+	private Rectangle pendingRegion;
+	private Timer frameTimer;
 	
 	/**
 	 * Constructs an AsciiPanelModel with null raster and and default font (CP437_9x16)
@@ -93,10 +132,22 @@ public class AsciiPanelModel extends Observable {
 		String whatChanged = this.raster == raster ? RASTER_CONTENT : RASTER;
 
 		this.raster = raster;
+		overlay = null;
+		overlayRegion = null;
+		discardPendingRegion();
 		setChanged();
 		notifyObservers(whatChanged);
 	}
 	
+	/**
+	 * Gets the overlay displayed on top of the raster
+	 * 
+	 * @return a raster with the same size of the current raster, or null if nothing was painted into the overlay
+	 */
+	public AsciiRaster getOverlay() {
+		return overlay;
+	}
+
 	/**
 	 * Gets the font that is used to display the raster
 	 * 
@@ -116,25 +167,175 @@ public class AsciiPanelModel extends Observable {
 			return;
 
 		this.font = font;
+		discardPendingRegion();
 		setChanged();
 		notifyObservers(FONT);
 	}
+
+	/**
+	 * Gets the maximum number of notifications of changed regions sent per second
+	 * 
+	 * @return the frame rate, or 0 if changed regions are notified immediately
+	 */
+	public int getFrameRate() {
+		return frameRate;
+	}
+
+	/**
+	 * Sets the maximum number of notifications of changed regions sent per second.
+	 * Any pending notification is sent immediately.
+	 * 
+	 * @param frameRate the frame rate, or 0 to notify changed regions immediately
+	 */
+	public void setFrameRate(int frameRate) {
+		if (frameRate < 0)
+			throw new IllegalArgumentException("frame rate cannot be negative");
+
+		flush();
+		this.frameRate = frameRate;
+
+		if (frameTimer != null)
+			frameTimer.setInitialDelay(frameRate > 0 ? 1000 / frameRate : 0);
+	}
+
+	/**
+	 * Sends immediately the pending notification of changed regions, if any
+	 */
+	public void flush() {
+		if (frameTimer != null)
+			frameTimer.stop();
+
+		if (pendingRegion == null)
+			return;
+
+		Rectangle region = pendingRegion;
+		pendingRegion = null;
+
+		setChanged();
+		notifyObservers(region);
+	}
 	
 	/**
 	 * Obtains a painter that paints to the current raster.
+	 * If the current raster is read-only, it is first replaced by a
+	 * modifiable copy.
 	 * 
 	 * @return an initialized instance of AsciiPainter
 	 */
 	public AsciiPainter beginPaint() {
+		if (raster.isReadOnly())
+			setRaster(raster.clone());
+
 		return new AsciiPainter(raster);
 	}
 	
 	/**
-	 * Notifies observer of changes made with the specified painter
+	 * Notifies observer of changes made with the specified painter. Only the
+	 * region modified since the previous call is notified; when the painter
+	 * did not modify anything, no notification is sent.
 	 * 
 	 * @param painter a painter obtained by calling beginPaint()
 	 */
 	public void endPaint(AsciiPainter painter) {
-		setRaster(painter.getSurface());
+		if (painter.getSurface() != raster) {
+			painter.resetDirtyRegion();
+			setRaster(painter.getSurface());
+			return;
+		}
+		
+		Rectangle dirtyRegion = painter.getDirtyRegion();
+		painter.resetDirtyRegion();
+		
+		if (dirtyRegion == null)
+			return;
+
+		notifyRegion(dirtyRegion);
+	}
+
+	/**
+	 * Obtains a painter that paints to the overlay. Characters equal to 0 are
+	 * transparent, so painting them erases cells of the overlay.
+	 * 
+	 * @return an initialized instance of AsciiPainter
+	 */
+	public AsciiPainter beginOverlayPaint() {
+		if (overlay == null)
+			overlay = AsciiRaster.create(raster.getWidth(), raster.getHeight());
+
+		return new AsciiPainter(overlay);
+	}
+
+	/**
+	 * Notifies observer of changes made to the overlay with the specified painter.
+	 * Only the region modified since the previous call is notified.
+	 * 
+	 * @param painter a painter obtained by calling beginOverlayPaint()
+	 */
+	public void endOverlayPaint(AsciiPainter painter) {
+		Rectangle dirtyRegion = painter.getDirtyRegion();
+		painter.resetDirtyRegion();
+
+		if (dirtyRegion == null || painter.getSurface() != overlay)
+			return;
+
+		overlayRegion = overlayRegion == null ? dirtyRegion : overlayRegion.union(dirtyRegion);
+
+		notifyRegion(dirtyRegion);
+	}
+
+	/**
+	 * Erases everything that was painted into the overlay, so that the raster
+	 * is displayed unchanged. Only the region painted since the overlay was
+	 * last cleared is erased and notified.
+	 */
+	public void clearOverlay() {
+		if (overlayRegion == null)
+			return;
+
+		Rectangle clearedRegion = overlayRegion;
+		overlayRegion = null;
+
+		overlay.fillRect(clearedRegion.x, clearedRegion.y, clearedRegion.x + clearedRegion.width,
+				clearedRegion.y + clearedRegion.height, (char) 0, AsciiRaster.DEFAULT_RGB, AsciiRaster.DEFAULT_RGB);
+
+		notifyRegion(clearedRegion);
+	}
+
+	/**
+	 * Adds a changed region to the pending notification, which is sent by the
+	 * frame timer, or notifies it immediately when the frame rate is 0
+	 */
+	private void notifyRegion(Rectangle region) {
+		pendingRegion = pendingRegion == null ? region : pendingRegion.union(region);
+
+		if (frameRate == 0) {
+			flush();
+			return;
+		}
+
+		if (frameTimer == null) {
+			frameTimer = new Timer(1000 / frameRate, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					flush();
+				}
+			});
+			frameTimer.setRepeats(false);
+		}
+
+		// the timer is not restarted, so that a continuous stream of changes is still notified once per frame
+		if (!frameTimer.isRunning())
+			frameTimer.start();
+	}
+
+	/**
+	 * Forgets the pending notification of changed regions, when a change of
+	 * property makes observers update everything anyway
+	 */
+	private void discardPendingRegion() {
+		pendingRegion = null;
+
+		if (frameTimer != null)
+			frameTimer.stop();
 	}
 }
@@ -1,34 +1,78 @@
 package asciipanel;
 
 import java.awt.Color;
+import java.util.Arrays;
 
 /**
  * This class displays a rectangular grid of characters ascii. Each character has
  * a foreground color and a background color associated with it.
  * 
+ * Cells are stored in row-major order into flat primitive arrays: one array of
+ * characters and two arrays of ARGB colors, where the cell (x, y) is found at
+ * index y * width + x. New cells contain character 0 on opaque black.
+ * 
+ * Subclasses may provide a different storage for cells by overriding the
+ * methods that access cells and by using the protected constructor.
+ * 
  * @author Lorenzo Bianchi
- *
+ * 
  */
 public class AsciiRaster implements Cloneable {
-	private char[][] chars;
-	private Color[][] forecolors;
-	private Color[][] backcolors;
+
+	/**
+	 * ARGB value of the default foreground and background color (opaque black)
+	 */
+	public static final int DEFAULT_RGB = 0xFF000000;
+
+	/**
+	 * Number of cells above which create() returns a TiledAsciiRaster
+	 */
+	public static final long LARGE_RASTER_CELLS = 1L << 22;
+
+	private char[] chars;
+	private int[] forecolors;
+	private int[] backcolors;
 	private int width;
 	private int height;
 
+	// snapshots that may still read bands of rows from the arrays of this raster,
+	// or null when there are none
+	private RasterSnapshot.Tracker snapshots;
+
 	/**
 	 * Class constructor
 	 * @param width number of columns in the grid
 	 * @param height number of lines in the grid
 	 */
 	public AsciiRaster(int width, int height) {
+		this(width, height, true);
+	}
+	
+	/**
+	 * Class constructor for subclasses that provide their own storage of cells
+	 * 
+	 * @param width			number of columns in the grid
+	 * @param height		number of lines in the grid
+	 * @param allocateCells when false, the arrays of cells are not allocated and
+	 *                      the subclass must override all methods that access cells
+	 */
+	protected AsciiRaster(int width, int height, boolean allocateCells) {
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("raster size cannot be negative");
+
 		setWidth(width);
 		setHeight(height);
-		setChars(new char[width][height]);
-		setForecolors(new Color[width][height]);
-		setBackcolors(new Color[width][height]);
-	}
+
+		if (allocateCells) {
+			chars = new char[width * height];
+			forecolors = new int[width * height];
+			backcolors = new int[width * height];
 	
+			Arrays.fill(forecolors, DEFAULT_RGB);
+			Arrays.fill(backcolors, DEFAULT_RGB);
+		}
+	}
+
 	/**
 	 * Creates a deep copy of the raster, whose character and color arrays are independent
 	 * from the original ones.
@@ -39,23 +83,51 @@ public class AsciiRaster implements Cloneable {
 
 		try {
 			copy = (AsciiRaster)super.clone();
-			copy.setChars(new char[width][height]);
-			copy.setForecolors(new Color[width][height]);
-			copy.setBackcolors(new Color[width][height]);
 		} catch (CloneNotSupportedException e) {
 			copy = new AsciiRaster(width, height);
 		}
-		
-		// copy bidimensional arrays
-		for (int x = 0; x < width; ++x) {
-			System.arraycopy(chars[x], 0, copy.chars[x], 0, height);
-			System.arraycopy(forecolors[x], 0, copy.forecolors[x], 0, height);
-			System.arraycopy(backcolors[x], 0, copy.backcolors[x], 0, height);
-		}
-		
+
+		// each plane is a single flat array
+		copy.chars = chars.clone();
+		copy.forecolors = forecolors.clone();
+		copy.backcolors = backcolors.clone();
+		copy.snapshots = null;
+
 		return copy;
 	}
 
+	/**
+	 * Creates a snapshot of the raster, that is a raster with the same content that is
+	 * not affected by later changes to this raster. Unlike clone(), taking a snapshot
+	 * does not copy the cells: the snapshot shares them with this raster, and only the
+	 * parts of the raster that are modified afterwards are copied, just before they
+	 * are modified for the first time.
+	 * 
+	 * The snapshot may be read-only (see isReadOnly()); use clone() on it to obtain
+	 * a modifiable copy.
+	 * 
+	 * @return a snapshot of the current content of the raster
+	 */
+	public synchronized AsciiRaster snapshot() {
+		Snapshot snapshot = new Snapshot(this);
+
+		if (snapshots == null)
+			snapshots = new RasterSnapshot.Tracker(width);
+		snapshots.add(snapshot);
+
+		return snapshot;
+	}
+
+	/**
+	 * Copies into the snapshots the bands of rows between top and bottom that are still
+	 * shared with them, before they are modified. Called by all methods that modify cells.
+	 * Synchronized, so that a thread writing a band waits until its copy is complete.
+	 */
+	private synchronized void preserveRows(int top, int bottom) {
+		if (snapshots != null && !snapshots.preserveRows(top, bottom))
+			snapshots = null;
+	}
+
 	/**
 	 * It gets number of columns in the grid
 	 * 
@@ -81,49 +153,287 @@ public class AsciiRaster implements Cloneable {
 	private void setHeight(int height) {
 		this.height = height;
 	}
+	
+	/**
+	 * Returns true if the cells of the raster cannot be modified. Methods that
+	 * modify cells throw UnsupportedOperationException on read-only rasters, but
+	 * clone() always returns a modifiable copy.
+	 * 
+	 * @return true if the raster is read-only
+	 */
+	public boolean isReadOnly() {
+		return false;
+	}
 
 	/**
-	 * It gets the two-dimensional array of characters
+	 * Gets the character of the cell at the specified position
 	 * 
-	 * @return the two-dimensional array of characters
+	 * @param x horizontal coordinate of the cell
+	 * @param y vertical coordinate of the cell
+	 * @return the character code of the cell
 	 */
-	public char[][] getChars() {
-		/*
-		 * if (chars==null) {
-		 * 
-		 * System.out.println("raster chars null!"); System.exit(1); }
-		 */
+	public char getCharAt(int x, int y) {
+		return chars[y * width + x];
+	}
+
+	/**
+	 * Gets the foreground color of the cell at the specified position
+	 * 
+	 * @param x horizontal coordinate of the cell
+	 * @param y vertical coordinate of the cell
+	 * @return the foreground color of the cell in ARGB format
+	 */
+	public int getFgRgb(int x, int y) {
+		return forecolors[y * width + x];
+	}
 
-		return chars;
+	/**
+	 * Gets the background color of the cell at the specified position
+	 * 
+	 * @param x horizontal coordinate of the cell
+	 * @param y vertical coordinate of the cell
+	 * @return the background color of the cell in ARGB format
+	 */
+	public int getBgRgb(int x, int y) {
+		return backcolors[y * width + x];
 	}
 
-	private void setChars(char[][] chars) {
-		this.chars = chars;
+	/**
+	 * Sets character, foreground and background color of the cell at the specified position
+	 * 
+	 * @param x         horizontal coordinate of the cell
+	 * @param y         vertical coordinate of the cell
+	 * @param character the character code of the cell
+	 * @param fgRgb     the foreground color of the cell in ARGB format
+	 * @param bgRgb     the background color of the cell in ARGB format
+	 */
+	public void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+		if (snapshots != null)
+			preserveRows(y, y + 1);
+
+		int i = y * width + x;
+		chars[i] = character;
+		forecolors[i] = fgRgb;
+		backcolors[i] = bgRgb;
 	}
 
 	/**
-	 * It gets the two-dimensional array of foreground colors
+	 * Sets character, foreground and background color of a horizontal span of cells
 	 * 
-	 * @return the two-dimensional array of foreground colors
+	 * @param y         vertical coordinate of the cells
+	 * @param left      horizontal coordinate of the first cell of the span
+	 * @param right     horizontal coordinate following the last cell of the span
+	 * @param character the character code of the cells
+	 * @param fgRgb     the foreground color of the cells in ARGB format
+	 * @param bgRgb     the background color of the cells in ARGB format
 	 */
-	public Color[][] getForecolors() {
-		return forecolors;
+	public void fillRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+		if (snapshots != null)
+			preserveRows(y, y + 1);
+
+		int start = y * width;
+		Arrays.fill(chars, start + left, start + right, character);
+		Arrays.fill(forecolors, start + left, start + right, fgRgb);
+		Arrays.fill(backcolors, start + left, start + right, bgRgb);
+	}
+
+	/**
+	 * Sets character, foreground and background color of all the cells inside a rectangle
+	 * 
+	 * @param left      horizontal coordinate of the first column
+	 * @param top       vertical coordinate of the first row
+	 * @param right     horizontal coordinate of the column after the last one
+	 * @param bottom    vertical coordinate of the row after the last one
+	 * @param character the character code of the cells
+	 * @param fgRgb     the foreground color of the cells in ARGB format
+	 * @param bgRgb     the background color of the cells in ARGB format
+	 */
+	public void fillRect(int left, int top, int right, int bottom, char character, int fgRgb, int bgRgb) {
+		for (int y = top; y < bottom; ++y)
+			fillRow(y, left, right, character, fgRgb, bgRgb);
+	}
+
+	/**
+	 * Gives the raster a chance to release memory used by the cells inside a rectangle,
+	 * for example when they turn out to be all equal. The default implementation does
+	 * nothing.
+	 * 
+	 * @param left	 horizontal coordinate of the first column
+	 * @param top	 vertical coordinate of the first row
+	 * @param right	 horizontal coordinate of the column after the last one
+	 * @param bottom vertical coordinate of the row after the last one
+	 */
+	public void compact(int left, int top, int right, int bottom) {
+	}
+
+	/**
+	 * Tells the raster that a part of a row has been written by a caller that writes
+	 * the rows from top to bottom, such as a loader or a fill. The raster can then
+	 * compact the areas that are complete, with the granularity of its own storage.
+	 * The default implementation does nothing.
+	 * 
+	 * @param y		vertical coordinate of the row
+	 * @param left	horizontal coordinate of the first column written
+	 * @param right horizontal coordinate of the column after the last one written
+	 */
+	public void rowWritten(int y, int left, int right) {
 	}
 
-	private void setForecolors(Color[][] forecolors) {
-		this.forecolors = forecolors;
+	/**
+	 * Tells the raster that a part of a column has been written by a caller that writes
+	 * the columns from left to right, like rowWritten does for rows. The default
+	 * implementation does nothing.
+	 * 
+	 * @param x		 horizontal coordinate of the column
+	 * @param top	 vertical coordinate of the first row written
+	 * @param bottom vertical coordinate of the row after the last one written
+	 */
+	public void columnWritten(int x, int top, int bottom) {
 	}
 
 	/**
-	 * It gets the two-dimensional array of background colors
+	 * Creates an empty raster of the specified size, with the storage best suited to it.
+	 * Rasters with more than LARGE_RASTER_CELLS cells are created as TiledAsciiRaster,
+	 * so that memory is used only for the parts that are painted, the other ones as
+	 * flat AsciiRaster. Both can be written by several threads at different cells
+	 * without locking; an IndexedAsciiRaster, which synchronizes its writes, is never
+	 * returned and must be created explicitly.
 	 * 
-	 * @return the two-dimensional array of background colors
+	 * @param width  number of columns in the grid
+	 * @param height number of lines in the grid
+	 * @return a new raster
 	 */
+	public static AsciiRaster create(int width, int height) {
+		if ((long) width * height > LARGE_RASTER_CELLS)
+			return new TiledAsciiRaster(width, height);
+		return new AsciiRaster(width, height);
+	}
+
+	/**
+	 * Sets the character of the cell at the specified position, preserving its colors
+	 * 
+	 * @param x         horizontal coordinate of the cell
+	 * @param y         vertical coordinate of the cell
+	 * @param character the character code of the cell
+	 */
+	public void setCharAt(int x, int y, char character) {
+		if (snapshots != null)
+			preserveRows(y, y + 1);
+
+		chars[y * width + x] = character;
+	}
+
+	/**
+	 * Sets the foreground color of the cell at the specified position, preserving
+	 * its character and background color
+	 * 
+	 * @param x     horizontal coordinate of the cell
+	 * @param y     vertical coordinate of the cell
+	 * @param fgRgb the foreground color of the cell in ARGB format
+	 */
+	public void setFgRgb(int x, int y, int fgRgb) {
+		if (snapshots != null)
+			preserveRows(y, y + 1);
+
+		forecolors[y * width + x] = fgRgb;
+	}
+
+	/**
+	 * It gets the characters as a two-dimensional array indexed by [x][y]. The array
+	 * is a read-only snapshot built from the cells when the method is called: writes
+	 * through it are not reflected in the raster, and later changes to the raster are
+	 * not reflected in it.
+	 * 
+	 * @return a new two-dimensional array of characters
+	 * @deprecated kept for compatibility with the storage of previous versions; read cells
+	 *             with {@link #getCharAt(int, int)} and write them with
+	 *             {@link #setCell(int, int, char, int, int)}
+	 */
+	@Deprecated
+	public char[][] getChars() {
+		char[][] result = new char[width][height];
+
+		for (int x = 0; x < width; ++x)
+			for (int y = 0; y < height; ++y)
+				result[x][y] = getCharAt(x, y);
+
+		return result;
+	}
+
+	/**
+	 * It gets the foreground colors as a two-dimensional array indexed by [x][y]. The
+	 * array is a read-only snapshot built from the cells when the method is called:
+	 * writes through it are not reflected in the raster, and later changes to the
+	 * raster are not reflected in it.
+	 * 
+	 * @return a new two-dimensional array of foreground colors
+	 * @deprecated kept for compatibility with the storage of previous versions; read colors
+	 *             with {@link #getFgRgb(int, int)} and write them with
+	 *             {@link #setCell(int, int, char, int, int)}
+	 */
+	@Deprecated
+	public Color[][] getForecolors() {
+		Color[][] result = new Color[width][height];
+
+		for (int x = 0; x < width; ++x)
+			for (int y = 0; y < height; ++y)
+				result[x][y] = new Color(getFgRgb(x, y), true);
+
+		return result;
+	}
+
+	/**
+	 * It gets the background colors as a two-dimensional array indexed by [x][y]. The
+	 * array is a read-only snapshot built from the cells when the method is called:
+	 * writes through it are not reflected in the raster, and later changes to the
+	 * raster are not reflected in it.
+	 * 
+	 * @return a new two-dimensional array of background colors
+	 * @deprecated kept for compatibility with the storage of previous versions; read colors
+	 *             with {@link #getBgRgb(int, int)} and write them with
+	 *             {@link #setCell(int, int, char, int, int)}
+	 */
+	@Deprecated
 	public Color[][] getBackcolors() {
-		return backcolors;
+		Color[][] result = new Color[width][height];
+
+		for (int x = 0; x < width; ++x)
+			for (int y = 0; y < height; ++y)
+				result[x][y] = new Color(getBgRgb(x, y), true);
+
+		return result;
 	}
 
-	private void setBackcolors(Color[][] backcolors) {
-		this.backcolors = backcolors;
+	/**
+	 * A read-only snapshot of a flat raster, which reads the bands of rows that have not
+	 * been modified since the snapshot was taken from the arrays of the original raster
+	 */
+	private static final class Snapshot extends RasterSnapshot {
+		private final char[] chars;
+		private final int[] forecolors;
+		private final int[] backcolors;
+
+		Snapshot(AsciiRaster source) {
+			super(source);
+
+			chars = source.chars;
+			forecolors = source.forecolors;
+			backcolors = source.backcolors;
+		}
+
+		@Override
+		void copyRows(int top, int bottom, char[] chars, int[] forecolors, int[] backcolors) {
+			int from = top * getWidth();
+			int length = (bottom - top) * getWidth();
+
+			System.arraycopy(this.chars, from, chars, 0, length);
+			System.arraycopy(this.forecolors, from, forecolors, 0, length);
+			System.arraycopy(this.backcolors, from, backcolors, 0, length);
+		}
+
+		@Override
+		AsciiRaster createRaster(int width, int height) {
+			return new AsciiRaster(width, height);
+		}
 	}
 }
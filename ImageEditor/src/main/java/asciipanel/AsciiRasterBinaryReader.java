@@ -0,0 +1,358 @@
+package asciipanel;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Create an instance of AsciiRaster by loading data from a file in binary format.
+ * 
+ * The binary format is much more compact and faster to read and write than the text
+ * format read by AsciiRasterReader. All numbers are big-endian:
+ *  - a header made of the magic number 0x41534352 ("ASCR"), a 16-bit version number,
+ *    16 bits of flags (reserved, currently 0), the width and the height of the grid
+ *    as 32-bit integers;
+ *  - the palette: the number of colors as a 32-bit integer, followed by each color
+ *    in ARGB format as a 32-bit integer;
+ *  - a record for each cell of the grid, in row-major order: the ASCII character
+ *    as an 8-bit integer, followed by the palette indices of the foreground and the
+ *    background color. Indices take 1 byte when the palette has at most 256 colors,
+ *    2 bytes when it has at most 65536 colors and 4 bytes otherwise.
+ * 
+ * @author Lorenzo Bianchi
+ * @see asciipanel.AsciiRasterBinaryWriter
+ */
+public class AsciiRasterBinaryReader implements Closeable {
+
+	/**
+	 * The magic number at the beginning of files in binary format
+	 */
+	public static final int MAGIC = 0x41534352;
+
+	/**
+	 * The version of the binary format written by AsciiRasterBinaryWriter
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Size in bytes of the header of the binary format
+	 */
+	static final int HEADER_SIZE = 16;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ReadableByteChannel channel;
+	private ByteBuffer buffer;
+
+	// number of bytes that can be read from the channel, or -1 if unknown
+	private long size;
+
+	/**
+	 * Class constructor. If the channel is a SeekableByteChannel, the header of the
+	 * file is checked against the number of bytes left in the channel.
+	 * 
+	 * @param channel an open channel to read from
+	 */
+	public AsciiRasterBinaryReader(ReadableByteChannel channel) {
+		this(channel, -1);
+	}
+
+	/**
+	 * Class constructor for channels whose size is known, although they are not seekable
+	 * 
+	 * @param channel an open channel to read from
+	 * @param size    the number of bytes left in the channel, or -1 if unknown
+	 */
+	public AsciiRasterBinaryReader(ReadableByteChannel channel, long size) {
+		this.channel = channel;
+		this.size = size;
+	}
+
+	/**
+	 * Checks whether a file starts with the header of the binary format. The position
+	 * of the channel is not changed.
+	 * 
+	 * @param channel an open file channel
+	 * @return true if the file is in binary format
+	 * @throws java.io.IOException thrown if an error occurs while reading the file
+	 */
+	public static boolean isBinaryFormat(FileChannel channel) throws IOException {
+		ByteBuffer magic = ByteBuffer.allocate(4);
+
+		while (magic.hasRemaining()) {
+			if (channel.read(magic, magic.position()) < 0)
+				return false;
+		}
+
+		return magic.getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Create an instance of AsciiRaster by loading data from a file in binary format.
+	 * 
+	 * @return AsciiRaster instance initialized with the data in the file, or null if
+	 *         the data is not in a supported format
+	 * @throws java.io.IOException thrown if an error occurs while reading the file
+	 */
+	public AsciiRaster read() throws IOException {
+		if (size < 0 && channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekable = (SeekableByteChannel) channel;
+			size = seekable.size() - seekable.position();
+		}
+
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.flip();
+
+		if (!require(HEADER_SIZE))
+			return null;
+
+		if (buffer.getInt() != MAGIC || (buffer.getShort() & 0xFFFF) != VERSION)
+			return null;
+
+		buffer.getShort(); // flags
+
+		int width = buffer.getInt();
+		int height = buffer.getInt();
+
+		if (!require(4))
+			return null;
+
+		int paletteSize = buffer.getInt();
+
+		if (!isValidHeader(width, height, paletteSize))
+			return null;
+
+		int indexSize = indexSize(paletteSize);
+		int recordSize = 1 + 2 * indexSize;
+
+		if (size >= 0 && size < dataOffset(paletteSize) + (long) width * height * recordSize)
+			throw new EOFException("unexpected end of file");
+
+		// when the size of the file is unknown, the palette grows as it is read,
+		// so that a corrupted palette size does not allocate memory in advance
+		int[] palette = new int[size >= 0 ? paletteSize : Math.min(paletteSize, BUFFER_SIZE)];
+
+		for (int i = 0; i < paletteSize; ++i) {
+			if (!require(4))
+				return null;
+			if (i == palette.length)
+				palette = Arrays.copyOf(palette, (int) Math.min(2L * i, paletteSize));
+			palette[i] = buffer.getInt();
+		}
+
+		IndexedAsciiRaster indexed = createIndexed(width, height, palette);
+		if (indexed != null)
+			return readIndices(indexed, paletteSize, indexSize) ? indexed : null;
+
+		AsciiRaster res = AsciiRaster.create(width, height);
+
+		try {
+			for (int y = 0; y < height; ++y) {
+				for (int x = 0; x < width; ++x) {
+					if (!require(recordSize))
+						throw new EOFException("unexpected end of file");
+
+					char ch = (char) (buffer.get() & 0xFF);
+					int fg = palette[getIndex(buffer, indexSize)];
+					int bg = palette[getIndex(buffer, indexSize)];
+
+					res.setCell(x, y, ch, fg, bg);
+				}
+
+				res.rowWritten(y, 0, width);
+			}
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			return null; // invalid palette index
+		}
+
+		return res;
+	}
+
+	/**
+	 * Creates an indexed raster with the palette of the file, into which the palette
+	 * indices can be copied directly. Large rasters, which are tiled, and palettes with
+	 * too many colors are not indexed.
+	 * 
+	 * @return the raster, or null if the raster must be created by AsciiRaster.create()
+	 */
+	private static IndexedAsciiRaster createIndexed(int width, int height, int[] palette) {
+		if ((long) width * height > AsciiRaster.LARGE_RASTER_CELLS)
+			return null;
+
+		if (palette.length == 0 || palette.length > IndexedAsciiRaster.MAX_PALETTE_SIZE)
+			return null;
+
+		try {
+			return new IndexedAsciiRaster(width, height, new ColorPalette(palette));
+		} catch (IllegalArgumentException ex) {
+			return null; // duplicate colors in the palette
+		}
+	}
+
+	/**
+	 * Reads the records of the cells into an indexed raster with the same palette as the file
+	 * 
+	 * @return false if a palette index is out of range
+	 */
+	private boolean readIndices(IndexedAsciiRaster res, int paletteSize, int indexSize) throws IOException {
+		int recordSize = 1 + 2 * indexSize;
+
+		for (int y = 0; y < res.getHeight(); ++y) {
+			for (int x = 0; x < res.getWidth(); ++x) {
+				if (!require(recordSize))
+					throw new EOFException("unexpected end of file");
+
+				char ch = (char) (buffer.get() & 0xFF);
+				int fg = getIndex(buffer, indexSize);
+				int bg = getIndex(buffer, indexSize);
+
+				if (fg < 0 || fg >= paletteSize || bg < 0 || bg >= paletteSize)
+					return false;
+
+				res.setCellIndices(x, y, ch, fg, bg);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Maps a file in binary format into memory and returns a read-only view of it.
+	 * Cells are decoded only when they are accessed, so this is much faster than
+	 * read() for large files that are only going to be displayed. The position of
+	 * the channel is not changed, and the view remains valid after the channel
+	 * is closed. Unlike read(), the palette indices are checked only when the cells
+	 * are accessed.
+	 * 
+	 * @param channel an open file channel
+	 * @return a MappedAsciiRaster over the file, or null if the file is not in a
+	 *         supported format
+	 * @throws java.io.IOException thrown if an error occurs while reading or mapping the file
+	 */
+	public static MappedAsciiRaster map(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+
+		if (!readFully(channel, header, 0))
+			return null;
+
+		if (header.getInt() != MAGIC || (header.getShort() & 0xFFFF) != VERSION)
+			return null;
+
+		header.getShort(); // flags
+
+		int width = header.getInt();
+		int height = header.getInt();
+		int paletteSize = header.getInt();
+
+		if (!isValidHeader(width, height, paletteSize))
+			return null;
+
+		// the cells are checked against the size of the file by MappedAsciiRaster
+		if (channel.size() < dataOffset(paletteSize))
+			throw new EOFException("unexpected end of file");
+
+		ByteBuffer colors = ByteBuffer.allocate(4 * paletteSize);
+
+		if (!readFully(channel, colors, HEADER_SIZE + 4))
+			return null;
+
+		int[] palette = new int[paletteSize];
+		colors.asIntBuffer().get(palette);
+
+		return new MappedAsciiRaster(channel, width, height, palette, dataOffset(paletteSize));
+	}
+
+	/**
+	 * Checks the sizes in the header. A file written by AsciiRasterBinaryWriter has
+	 * at most two colors in the palette for each cell.
+	 */
+	private static boolean isValidHeader(int width, int height, int paletteSize) {
+		return width >= 0 && height >= 0 && paletteSize >= 0 && paletteSize <= 2L * width * height;
+	}
+
+	/**
+	 * Computes the position in the file of the record of the first cell
+	 */
+	private static long dataOffset(int paletteSize) {
+		return HEADER_SIZE + 4 + 4L * paletteSize;
+	}
+
+	/**
+	 * Fills a buffer with a positional read and flips it
+	 * 
+	 * @return false if the end of the file is reached before
+	 */
+	private static boolean readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+		while (dst.hasRemaining()) {
+			if (channel.read(dst, position + dst.position()) < 0)
+				return false;
+		}
+
+		dst.flip();
+		return true;
+	}
+
+	/**
+	 * Computes the size in bytes of a palette index
+	 * 
+	 * @param paletteSize the number of colors in the palette
+	 * @return 1, 2 or 4
+	 */
+	static int indexSize(int paletteSize) {
+		if (paletteSize <= 0x100)
+			return 1;
+		if (paletteSize <= 0x10000)
+			return 2;
+		return 4;
+	}
+
+	/**
+	 * Reads a palette index of the specified size from a buffer
+	 */
+	static int getIndex(ByteBuffer buffer, int indexSize) {
+		switch (indexSize) {
+		case 1:
+			return buffer.get() & 0xFF;
+		case 2:
+			return buffer.getShort() & 0xFFFF;
+		default:
+			return buffer.getInt();
+		}
+	}
+
+	/**
+	 * Makes sure that at least the specified number of bytes is available in the buffer,
+	 * reading from the channel if necessary.
+	 * 
+	 * @return false if the end of the file is reached before
+	 */
+	private boolean require(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes)
+			return true;
+
+		buffer.compact();
+
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				return false;
+			}
+		}
+
+		buffer.flip();
+		return true;
+	}
+
+	/**
+	 * Closes the underlying file
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
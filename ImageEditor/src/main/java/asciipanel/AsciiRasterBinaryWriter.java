@@ -0,0 +1,194 @@
+package asciipanel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Write data from an instance of AsciiRaster into a file in binary format.
+ * 
+ * @author Lorenzo Bianchi
+ * @see asciipanel.AsciiRasterBinaryReader
+ */
+public class AsciiRasterBinaryWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// rasters with more cells are read twice instead of keeping the palette index of every color
+	private static final long MAX_BUFFERED_CELLS = 1L << 22;
+
+	private WritableByteChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	/**
+	 * Class constructor
+	 * @param channel an open channel to write into
+	 */
+	public AsciiRasterBinaryWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Write data from an instance of AsciiRaster into a file in binary format.
+	 * 
+	 * @param rast an instance of AsciiRaster
+	 * @throws java.io.IOException thrown if an error occurs while writing the file
+	 */
+	public void write(AsciiRaster rast) throws IOException {
+		if (rast instanceof IndexedAsciiRaster && ((IndexedAsciiRaster) rast).getPalette() != null) {
+			writeIndexed((IndexedAsciiRaster) rast);
+			return;
+		}
+
+		int width = rast.getWidth();
+		int height = rast.getHeight();
+
+		// collect the colors used by the raster and, unless the raster is too large,
+		// the palette index of each color
+		ColorPalette palette = new ColorPalette();
+		int[] indices = (long) width * height <= MAX_BUFFERED_CELLS ? new int[2 * width * height] : null;
+
+		for (int y = 0, i = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int fg = palette.add(rast.getFgRgb(x, y));
+				int bg = palette.add(rast.getBgRgb(x, y));
+
+				if (indices != null) {
+					indices[i++] = fg;
+					indices[i++] = bg;
+				}
+			}
+		}
+
+		int indexSize = writeHeader(width, height, palette);
+		int recordSize = 1 + 2 * indexSize;
+
+		for (int y = 0, i = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				ensureRemaining(recordSize);
+
+				buffer.put((byte) rast.getCharAt(x, y));
+
+				if (indices != null) {
+					putIndex(indices[i++], indexSize);
+					putIndex(indices[i++], indexSize);
+				} else {
+					putIndex(palette.indexOf(rast.getFgRgb(x, y)), indexSize);
+					putIndex(palette.indexOf(rast.getBgRgb(x, y)), indexSize);
+				}
+			}
+		}
+
+		drain();
+	}
+
+	/**
+	 * Writes an indexed raster using the palette indices of its cells, so that colors
+	 * do not have to be looked up. The palette of the raster may contain colors that
+	 * are no longer used, so its indices are mapped to those of a palette of the used
+	 * colors, in the same order in which write() would collect them.
+	 */
+	private void writeIndexed(IndexedAsciiRaster rast) throws IOException {
+		int width = rast.getWidth();
+		int height = rast.getHeight();
+
+		ColorPalette rasterPalette = rast.getPalette();
+		ColorPalette palette = new ColorPalette();
+		int[] remap = new int[rasterPalette.size()];
+		Arrays.fill(remap, -1);
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				int fg = rast.getFgIndex(x, y);
+				int bg = rast.getBgIndex(x, y);
+
+				if (remap[fg] < 0)
+					remap[fg] = palette.add(rasterPalette.getColor(fg));
+				if (remap[bg] < 0)
+					remap[bg] = palette.add(rasterPalette.getColor(bg));
+			}
+		}
+
+		int indexSize = writeHeader(width, height, palette);
+		int recordSize = 1 + 2 * indexSize;
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				ensureRemaining(recordSize);
+
+				buffer.put((byte) rast.getCharAt(x, y));
+				putIndex(remap[rast.getFgIndex(x, y)], indexSize);
+				putIndex(remap[rast.getBgIndex(x, y)], indexSize);
+			}
+		}
+
+		drain();
+	}
+
+	/**
+	 * Writes the header and the palette into the buffer
+	 * 
+	 * @return the size in bytes of the palette indices
+	 */
+	private int writeHeader(int width, int height, ColorPalette palette) throws IOException {
+		buffer.clear();
+		buffer.putInt(AsciiRasterBinaryReader.MAGIC);
+		buffer.putShort((short) AsciiRasterBinaryReader.VERSION);
+		buffer.putShort((short) 0); // flags
+		buffer.putInt(width);
+		buffer.putInt(height);
+		buffer.putInt(palette.size());
+
+		for (int i = 0; i < palette.size(); ++i) {
+			ensureRemaining(4);
+			buffer.putInt(palette.getColor(i));
+		}
+
+		return AsciiRasterBinaryReader.indexSize(palette.size());
+	}
+
+	private void putIndex(int index, int indexSize) {
+		switch (indexSize) {
+		case 1:
+			buffer.put((byte) index);
+			break;
+		case 2:
+			buffer.putShort((short) index);
+			break;
+		default:
+			buffer.putInt(index);
+			break;
+		}
+	}
+
+	/**
+	 * Makes room for the specified number of bytes in the buffer, writing
+	 * its content to the channel if necessary.
+	 */
+	private void ensureRemaining(int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			drain();
+	}
+
+	/**
+	 * Writes the whole content of the buffer to the channel
+	 */
+	private void drain() throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+
+		buffer.clear();
+	}
+
+	/**
+	 * Closes the underlying file
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
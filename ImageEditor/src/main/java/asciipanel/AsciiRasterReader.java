@@ -1,6 +1,5 @@
 package asciipanel;
 
-import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
@@ -8,11 +7,29 @@ import java.io.IOException;
 /**
  * Create an instance of AsciiRaster by loading data from a file.
  * 
+ * The file is parsed directly from a large buffer of characters, without
+ * creating strings or other objects for each line.
+ * 
  * @author Lorenzo Bianchi
  */
 public class AsciiRasterReader implements Closeable {
+
+	/**
+	 * First line of the files in run-length encoded text format
+	 */
+	public static final String RUN_LENGTH_MARKER = "RLE";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
     private BufferedReader reader;
 
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private int limit;
+
+	// the last integer parsed by nextInt()
+	private int value;
+
     /**
      * Class constructor
      * @param reader an open BufferedReader to read from
@@ -34,35 +51,58 @@ public class AsciiRasterReader implements Closeable {
 	 * Grid data consists of blocks sx which consist of sy lines. 
 	 * Each block provides the data of each column of the grid.
 	 * 
-	 * @return AsciiRaster instance initialized with the data in the file
+	 * Files in run-length encoded format start with a line containing RUN_LENGTH_MARKER,
+	 * followed by the width and the height lines. Each of the following lines describes
+	 * a run of equal cells with four integers: the number of cells, the ASCII character,
+	 * the foreground color and the background color. The runs cover the grid row by row,
+	 * and a run can continue on the next row.
+	 * 
+	 * In both formats, if the file ends before all cells are read, the remaining cells
+	 * are left empty.
+	 * 
+	 * @return AsciiRaster instance initialized with the data in the file, or null if
+	 *         the data is not in a valid format
 	 * @throws java.io.IOException thrown if an error occurs while reading the file
 	 */
     public AsciiRaster read() throws IOException {
     	try {
-	    	int sx = Integer.parseInt(reader.readLine());
-			int sy = Integer.parseInt(reader.readLine());
-	
-			AsciiRaster res = new AsciiRaster(sx, sy);
+			boolean runLength = skipMarker();
+
+			if (!nextInt())
+				return null;
+			int sx = value;
+
+			if (!nextInt())
+				return null;
+			int sy = value;
+
+			if (sx < 0 || sy < 0)
+				return null;
 	
-			int x = 0;
-			int y = 0;
+			if (runLength)
+				return readRuns(sx, sy);
+
+			AsciiRaster res = AsciiRaster.create(sx, sy);
 	
-			while (reader.ready()) {
-				String line = reader.readLine();
-				String[] lines = line.split("\t");
-				Color fg = new Color(Integer.parseInt(lines[1]));
-				Color bg = new Color(Integer.parseInt(lines[2]));
-				char ch = (char) Integer.parseInt(lines[0]);
-				res.getChars()[x][y] = ch;
-				res.getForecolors()[x][y] = fg;
-				res.getBackcolors()[x][y] = bg;
-				y++;
-				if (y == sy) {
-					y = 0;
-					x++;
-					if (x == sx)
-						break;
+			for (int x = 0; x < sx; ++x) {
+				for (int y = 0; y < sy; ++y) {
+					if (!nextInt())
+						return res;
+					char ch = (char) value;
+
+					if (!nextInt())
+						return null;
+					// colors are always opaque
+					int fg = value | 0xFF000000;
+
+					if (!nextInt())
+						return null;
+					int bg = value | 0xFF000000;
+
+					res.setCell(x, y, ch, fg, bg);
 				}
+
+				res.columnWritten(x, 0, sy);
 			}
 	
 			return res;
@@ -71,6 +111,147 @@ public class AsciiRasterReader implements Closeable {
     	}
     }
 
+	/**
+	 * Reads the cells of a file in run-length encoded format, row by row
+	 */
+	private AsciiRaster readRuns(int sx, int sy) throws IOException {
+		AsciiRaster res = AsciiRaster.create(sx, sy);
+		long cells = (long) sx * sy;
+		long position = 0;
+		int completeRows = 0;
+
+		while (position < cells) {
+			if (!nextInt())
+				return res;
+			int count = value;
+
+			if (count <= 0 || count > cells - position)
+				return null;
+
+			if (!nextInt())
+				return null;
+			char ch = (char) value;
+
+			if (!nextInt())
+				return null;
+			// colors are always opaque
+			int fg = value | 0xFF000000;
+
+			if (!nextInt())
+				return null;
+			int bg = value | 0xFF000000;
+
+			// a run can span several rows
+			while (count > 0) {
+				int y = (int) (position / sx);
+				int x = (int) (position % sx);
+				int n = Math.min(count, sx - x);
+
+				res.fillRow(y, x, x + n, ch, fg, bg);
+				position += n;
+				count -= n;
+			}
+
+			for (; completeRows < position / sx; ++completeRows)
+				res.rowWritten(completeRows, 0, sx);
+		}
+
+		return res;
+	}
+
+	/**
+	 * Skips the first line of the file if it contains RUN_LENGTH_MARKER
+	 * 
+	 * @return true if the file is in run-length encoded format
+	 * @throws NumberFormatException if the first line starts like the marker but is not
+	 */
+	private boolean skipMarker() throws IOException {
+		int c = readChar();
+		while (isWhitespace(c))
+			c = readChar();
+
+		if (c != RUN_LENGTH_MARKER.charAt(0)) {
+			// the first character belongs to the width
+			if (c >= 0)
+				--position;
+			return false;
+		}
+
+		for (int i = 1; i < RUN_LENGTH_MARKER.length(); ++i)
+			if (readChar() != RUN_LENGTH_MARKER.charAt(i))
+				throw new NumberFormatException("invalid format marker");
+
+		c = readChar();
+		if (c >= 0 && !isWhitespace(c))
+			throw new NumberFormatException("invalid format marker");
+
+		return true;
+	}
+
+	/**
+	 * Parses the next decimal integer, skipping any whitespace before it.
+	 * The result is stored in the value field.
+	 * 
+	 * @return false if the end of the file is reached before an integer is found
+	 * @throws NumberFormatException if the next token is not a valid integer
+	 */
+	private boolean nextInt() throws IOException {
+		int c = readChar();
+		while (isWhitespace(c))
+			c = readChar();
+
+		if (c < 0)
+			return false;
+
+		boolean negative = c == '-';
+		if (negative || c == '+')
+			c = readChar();
+
+		if (c < '0' || c > '9')
+			throw new NumberFormatException("digit expected");
+
+		long v = 0;
+		do {
+			v = v * 10 + (c - '0');
+			if (v > 1L << 31)
+				throw new NumberFormatException("integer out of range");
+			c = readChar();
+		} while (c >= '0' && c <= '9');
+
+		if (c >= 0 && !isWhitespace(c))
+			throw new NumberFormatException("unexpected character " + (char) c);
+
+		if (negative)
+			v = -v;
+		if (v > Integer.MAX_VALUE)
+			throw new NumberFormatException("integer out of range");
+
+		value = (int) v;
+		return true;
+	}
+
+	private static boolean isWhitespace(int c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+
+	/**
+	 * Gets the next character from the buffer, refilling it when necessary
+	 * 
+	 * @return the character, or -1 at the end of the file
+	 */
+	private int readChar() throws IOException {
+		if (position == limit) {
+			int n = reader.read(buffer, 0, buffer.length);
+			if (n <= 0)
+				return -1;
+
+			position = 0;
+			limit = n;
+		}
+
+		return buffer[position++];
+	}
+
     /**
      * Closes the underlying file
      */
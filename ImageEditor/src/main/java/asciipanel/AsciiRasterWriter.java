@@ -1,6 +1,5 @@
 package asciipanel;
 
-import java.awt.Color;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.Flushable;
@@ -15,38 +14,106 @@ import java.io.IOException;
 public class AsciiRasterWriter implements Closeable, Flushable {
 
 	private BufferedWriter writer;
+	private boolean runLength;
 	
 	/**
      * Class constructor
      * @param writer an open BufferedWriter to write into 
      */
 	public AsciiRasterWriter(BufferedWriter writer) {
+		this(writer, false);
+	}
+	
+	/**
+	 * Class constructor
+	 * 
+	 * @param writer    an open BufferedWriter to write into
+	 * @param runLength when true, the raster is written in run-length encoded format,
+	 *                  which stores each run of equal cells in a single line, unless
+	 *                  the raster has so few runs that the file would not be smaller
+	 */
+	public AsciiRasterWriter(BufferedWriter writer, boolean runLength) {
 		this.writer = writer;
+		this.runLength = runLength;
 	}
 	
 	/**
-	 * Write data from an instance of AsciiRaster into a file. 
+	 * Write data from an instance of AsciiRaster into a file. The formats are
+	 * described in AsciiRasterReader.read().
 	 * 
 	 * @param rast an instance of AsciiRaster
 	 * @throws java.io.IOException thrown if an error occurs while writing the file
 	 */
 	public void write(AsciiRaster rast) throws IOException {
+		// a run takes a few more bytes than a single cell
+		if (runLength && writeRuns(rast, false) <= (long) rast.getWidth() * rast.getHeight() * 3 / 4) {
+			writer.write(AsciiRasterReader.RUN_LENGTH_MARKER + "\n");
+			writer.write(rast.getWidth() + "\n");
+			writer.write(rast.getHeight() + "\n");
+			writeRuns(rast, true);
+			return;
+		}
+
 		writer.write(rast.getWidth() + "\n");
 		writer.write(rast.getHeight() + "\n");
 
 		for (int x = 0; x < rast.getWidth(); x++) {
 			for (int y = 0; y < rast.getHeight(); y++) {
-				Color fg = rast.getForecolors()[x][y];
-				Color bg = rast.getBackcolors()[x][y];
+				writer.write((int) rast.getCharAt(x, y) + "\t" + rast.getFgRgb(x, y) + "\t" + rast.getBgRgb(x, y) + "\n");
+			}
+		}
+	}
+	
+	/**
+	 * Writes the runs of equal cells of the raster, row by row, or only counts them.
+	 * Tiled rasters can have more than 2^31 cells, so the runs are counted in a long,
+	 * and longer runs are split, since the reader reads the length of a run as an int.
+	 * 
+	 * @param write when false, nothing is written
+	 * @return the number of runs
+	 */
+	private long writeRuns(AsciiRaster rast, boolean write) throws IOException {
+		long runs = 0;
+		int count = 0;
+		char ch = 0;
+		int fg = 0;
+		int bg = 0;
+
+		for (int y = 0; y < rast.getHeight(); y++) {
+			for (int x = 0; x < rast.getWidth(); x++) {
+				char c = rast.getCharAt(x, y);
+				int f = rast.getFgRgb(x, y);
+				int b = rast.getBgRgb(x, y);
+
+				if (count > 0 && count < Integer.MAX_VALUE && c == ch && f == fg && b == bg) {
+					++count;
+					continue;
+				}
 
-				if (fg == null)
-					fg = Color.black;
-				if (bg == null)
-					bg = Color.black;
+				if (count > 0) {
+					++runs;
+					if (write)
+						writeRun(count, ch, fg, bg);
+				}
 
-				writer.write((int) rast.getChars()[x][y] + "\t" + fg.getRGB() + "\t" + bg.getRGB() + "\n");
+				count = 1;
+				ch = c;
+				fg = f;
+				bg = b;
 			}
 		}
+
+		if (count > 0) {
+			++runs;
+			if (write)
+				writeRun(count, ch, fg, bg);
+		}
+
+		return runs;
+	}
+	
+	private void writeRun(int count, char ch, int fg, int bg) throws IOException {
+		writer.write(count + "\t" + (int) ch + "\t" + fg + "\t" + bg + "\n");
 	}
 	
 	/**
@@ -0,0 +1,136 @@
+package asciipanel;
+
+import java.util.Arrays;
+
+/**
+ * An ordered set of ARGB colors, where each color is identified by its index.
+ * Looking up the index of a color takes constant time and does not allocate objects.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class ColorPalette {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int[] colors = new int[INITIAL_CAPACITY];
+	private int size;
+
+	// open addressing hash table of indices into colors (stored as index + 1, 0 means empty)
+	private int[] table = new int[INITIAL_CAPACITY * 2];
+
+	/**
+	 * Constructs an empty palette
+	 */
+	public ColorPalette() {
+	}
+
+	/**
+	 * Constructs a palette containing the specified colors, in the same order
+	 * 
+	 * @param colors an array of ARGB colors without duplicates
+	 */
+	public ColorPalette(int[] colors) {
+		for (int color : colors) {
+			int oldSize = size;
+			if (add(color) < oldSize)
+				throw new IllegalArgumentException("duplicate color in palette: " + Integer.toHexString(color));
+		}
+	}
+
+	/**
+	 * Gets the index of the specified color
+	 * 
+	 * @param argb a color in ARGB format
+	 * @return the index of the color, or -1 if the color is not in the palette
+	 */
+	public int indexOf(int argb) {
+		int mask = table.length - 1;
+		int slot = hash(argb) & mask;
+
+		while (table[slot] != 0) {
+			if (colors[table[slot] - 1] == argb)
+				return table[slot] - 1;
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Adds a color to the palette, unless it is already present
+	 * 
+	 * @param argb a color in ARGB format
+	 * @return the index of the color
+	 */
+	public int add(int argb) {
+		int mask = table.length - 1;
+		int slot = hash(argb) & mask;
+
+		while (table[slot] != 0) {
+			if (colors[table[slot] - 1] == argb)
+				return table[slot] - 1;
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == colors.length)
+			colors = Arrays.copyOf(colors, size * 2);
+
+		colors[size] = argb;
+		table[slot] = ++size;
+
+		// keep the load factor at most 1/2
+		if (size * 2 > table.length)
+			rehash(table.length * 2);
+
+		return size - 1;
+	}
+
+	/**
+	 * Gets the color with the specified index
+	 * 
+	 * @param index the index of a color in the palette
+	 * @return the color in ARGB format
+	 */
+	public int getColor(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("palette index " + index + " out of range [0," + size + ")");
+
+		return colors[index];
+	}
+
+	/**
+	 * Gets the number of colors in the palette
+	 * 
+	 * @return the number of colors
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the colors of the palette as an array, ordered by index
+	 * 
+	 * @return a new array of ARGB colors
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(colors, size);
+	}
+
+	private void rehash(int capacity) {
+		int mask = capacity - 1;
+
+		table = new int[capacity];
+
+		for (int i = 0; i < size; ++i) {
+			int slot = hash(colors[i]) & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			table[slot] = i + 1;
+		}
+	}
+
+	private static int hash(int argb) {
+		int h = argb * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,217 @@
+package asciipanel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.LookupOp;
+import java.awt.image.ShortLookupTable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of glyph images already tinted with a foreground and a background color.
+ * Entries are identified by font, glyph, foreground color and background color, and when
+ * the cache is full the least recently used entry is discarded.
+ * 
+ * Looking up an entry that is already in the cache does not allocate any object, so
+ * repainting images that use a small set of colors does not produce garbage.
+ * 
+ * This class is not thread-safe: it is meant to be used by the painting code of AsciiPanel,
+ * which runs on the event dispatch thread.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class GlyphCache {
+
+	/**
+	 * The default maximum number of tinted glyphs kept in the cache
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final int capacity;
+	private final Map<Key, BufferedImage> entries;
+	private final Key probe = new Key();
+
+	private long hitCount;
+	private long missCount;
+
+	/**
+	 * Constructs a cache with the default capacity
+	 */
+	public GlyphCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructs a cache with the specified capacity
+	 * 
+	 * @param capacity maximum number of tinted glyphs kept in the cache
+	 */
+	public GlyphCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+				return size() > GlyphCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Gets the glyph of the specified font tinted with the given colors. The image
+	 * is taken from the cache when possible, otherwise it is created and stored.
+	 * 
+	 * @param font  the font the glyph belongs to
+	 * @param glyph an ASCII character code between 0 and 255
+	 * @param fgRgb the foreground color in ARGB format
+	 * @param bgRgb the background color in ARGB format
+	 * @return an image of the tinted glyph, which must not be modified
+	 */
+	public BufferedImage getTintedGlyph(AsciiFont font, int glyph, int fgRgb, int bgRgb) {
+		probe.set(font, glyph, fgRgb, bgRgb);
+
+		BufferedImage image = entries.get(probe);
+
+		if (image != null) {
+			++hitCount;
+			return image;
+		}
+
+		++missCount;
+
+		image = buildColorLUT(bgRgb, fgRgb).filter(font.getGlyph(glyph), null);
+
+		Key key = new Key();
+		key.set(font, glyph, fgRgb, bgRgb);
+		entries.put(key, image);
+
+		return image;
+	}
+
+	/**
+	 * Gets the number of lookups that found the tinted glyph in the cache
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of lookups that had to create the tinted glyph
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Gets the maximum number of tinted glyphs kept in the cache
+	 * 
+	 * @return the capacity of the cache
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Gets the number of tinted glyphs currently in the cache
+	 * 
+	 * @return the number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Discards all entries and resets hit and miss counters
+	 */
+	public void clear() {
+		entries.clear();
+		hitCount = 0;
+		missCount = 0;
+	}
+
+	/**
+	 * Create a <code>LookupOp</code> object (lookup table) mapping the original
+	 * pixels to the background and foreground colors, respectively.
+	 * 
+	 * @param bgColor the background color in ARGB format
+	 * @param fgColor the foreground color in ARGB format
+	 * @return the <code>LookupOp</code> object (lookup table)
+	 */
+	private static LookupOp buildColorLUT(int bgColor, int fgColor) {
+		short[] a = new short[256];
+		short[] r = new short[256];
+		short[] g = new short[256];
+		short[] b = new short[256];
+
+		byte bga = (byte) (bgColor >>> 24);
+		byte bgr = (byte) (bgColor >> 16);
+		byte bgg = (byte) (bgColor >> 8);
+		byte bgb = (byte) (bgColor);
+
+		byte fga = (byte) (fgColor >>> 24);
+		byte fgr = (byte) (fgColor >> 16);
+		byte fgg = (byte) (fgColor >> 8);
+		byte fgb = (byte) (fgColor);
+
+		for (int i = 0; i < 256; i++) {
+			if (i == 0) {
+				a[i] = bga;
+				r[i] = bgr;
+				g[i] = bgg;
+				b[i] = bgb;
+			} else {
+				a[i] = fga;
+				r[i] = fgr;
+				g[i] = fgg;
+				b[i] = fgb;
+			}
+		}
+
+		short[][] table = { r, g, b, a };
+		return new LookupOp(new ShortLookupTable(0, table), null);
+	}
+
+	/**
+	 * Identifies a tinted glyph. Instances are mutable so that a single
+	 * probe instance can be reused for lookups.
+	 */
+	private static final class Key {
+		private AsciiFont font;
+		private int glyph;
+		private int fgRgb;
+		private int bgRgb;
+
+		void set(AsciiFont font, int glyph, int fgRgb, int bgRgb) {
+			this.font = font;
+			this.glyph = glyph;
+			this.fgRgb = fgRgb;
+			this.bgRgb = bgRgb;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = System.identityHashCode(font);
+			h = 31 * h + glyph;
+			h = 31 * h + fgRgb;
+			h = 31 * h + bgRgb;
+			return h;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+			return font == other.font && glyph == other.glyph
+					&& fgRgb == other.fgRgb && bgRgb == other.bgRgb;
+		}
+	}
+}
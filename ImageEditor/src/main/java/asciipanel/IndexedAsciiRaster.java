@@ -0,0 +1,480 @@
+package asciipanel;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An AsciiRaster that stores the colors of its cells as indices into a palette of up
+ * to 65536 colors, so that each cell takes 6 bytes instead of 10. Images rarely use
+ * more than a few hundred distinct colors.
+ * 
+ * When a color cannot be added to a full palette, the colors no longer used by any
+ * cell are removed from the palette. If the palette is still full, the raster switches
+ * to storing colors directly, like AsciiRaster does, and keeps doing so.
+ * 
+ * The cells are stored in bands of rows of a few thousand cells. Copies and snapshots
+ * share the bands and the palette with the raster, so they take time proportional to
+ * the number of bands; a band is copied only when one of the rasters sharing it
+ * modifies it, and the palette when a new color is added to it. Since shared bands are
+ * never modified, snapshots can be read by any thread without locking.
+ * 
+ * Different threads may write to different cells at the same time: all changes
+ * are synchronized, since writing a new color changes the palette. Writing many
+ * cells one at a time is therefore slower than with AsciiRaster, and threads
+ * writing at the same time wait for each other, which is why AsciiRaster.create()
+ * never returns an indexed raster.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class IndexedAsciiRaster extends AsciiRaster {
+
+	/**
+	 * Maximum number of colors in the palette of the raster
+	 */
+	public static final int MAX_PALETTE_SIZE = 1 << 16;
+
+	// each band has 1 << bandShift rows, except the last one
+	private final int bandShift;
+	private final Band[] bands;
+
+	// the bands that this raster can modify in place, the other ones may be shared
+	// with copies and snapshots
+	private final BitSet ownedBands = new BitSet();
+
+	private ColorPalette palette;
+
+	// true while the palette may be shared with copies and snapshots
+	private boolean paletteShared;
+
+	// false once the raster stores colors directly
+	private boolean indexed = true;
+
+	// the last color looked up in the palette, which is most often the next one
+	private int lastColor = DEFAULT_RGB;
+	private int lastIndex;
+
+	/**
+	 * Class constructor
+	 * @param width number of columns in the grid
+	 * @param height number of lines in the grid
+	 */
+	public IndexedAsciiRaster(int width, int height) {
+		this(width, height, new ColorPalette(new int[] { DEFAULT_RGB }));
+	}
+
+	/**
+	 * Creates a raster with the specified palette, whose cells all have index 0
+	 */
+	IndexedAsciiRaster(int width, int height, ColorPalette palette) {
+		super(width, height, false);
+
+		if (palette.size() == 0 || palette.size() > MAX_PALETTE_SIZE)
+			throw new IllegalArgumentException("palette must have between 1 and " + MAX_PALETTE_SIZE + " colors");
+
+		// bands have a power of two rows, so that finding the band of a row takes a shift
+		bandShift = Integer.numberOfTrailingZeros(Integer.highestOneBit(RasterSnapshot.bandRows(width)));
+		bands = new Band[(int) (((long) height + (1 << bandShift) - 1) >> bandShift)];
+
+		for (int i = 0; i < bands.length; ++i) {
+			int rows = Math.min(1 << bandShift, height - (i << bandShift));
+			bands[i] = new Band(rows * width);
+		}
+		ownedBands.set(0, bands.length);
+
+		this.palette = palette;
+		lastColor = palette.getColor(0);
+	}
+
+	/**
+	 * Creates a raster sharing the bands and the palette of another one
+	 */
+	private IndexedAsciiRaster(IndexedAsciiRaster source) {
+		super(source.getWidth(), source.getHeight(), false);
+
+		bandShift = source.bandShift;
+		bands = source.bands.clone();
+		palette = source.palette;
+		paletteShared = true;
+		indexed = source.indexed;
+		lastColor = source.lastColor;
+		lastIndex = source.lastIndex;
+	}
+
+	/**
+	 * Creates a copy of the raster. The bands of cells are shared with the copy, and
+	 * each band is copied when either of them modifies it.
+	 */
+	@Override
+	public synchronized IndexedAsciiRaster clone() {
+		IndexedAsciiRaster copy = new IndexedAsciiRaster(this);
+		share();
+		return copy;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The snapshot shares the bands of cells and the palette with the raster, which
+	 * copies each band before modifying it.
+	 */
+	@Override
+	public synchronized AsciiRaster snapshot() {
+		Snapshot snapshot = new Snapshot(this);
+		share();
+		return snapshot;
+	}
+
+	/**
+	 * Makes the raster copy its bands and its palette before modifying them, since
+	 * they have just been shared with a copy or a snapshot
+	 */
+	private void share() {
+		ownedBands.clear();
+		paletteShared = true;
+	}
+
+	/**
+	 * Gets the number of colors in the palette of the raster
+	 * 
+	 * @return the number of colors, or 0 if the raster stores colors directly
+	 */
+	public int getPaletteSize() {
+		return indexed ? palette.size() : 0;
+	}
+
+	/**
+	 * Gets the palette of the raster, which must not be modified
+	 * 
+	 * @return the palette, or null if the raster stores colors directly
+	 */
+	ColorPalette getPalette() {
+		return indexed ? palette : null;
+	}
+
+	/**
+	 * Gets the palette index of the foreground color of a cell.
+	 * Valid only while getPalette() is not null.
+	 */
+	int getFgIndex(int x, int y) {
+		return bands[y >> bandShift].fgIndices[cellIndex(x, y)] & 0xFFFF;
+	}
+
+	/**
+	 * Gets the palette index of the background color of a cell.
+	 * Valid only while getPalette() is not null.
+	 */
+	int getBgIndex(int x, int y) {
+		return bands[y >> bandShift].bgIndices[cellIndex(x, y)] & 0xFFFF;
+	}
+
+	/**
+	 * Sets the palette indices of the colors of a cell. Used by AsciiRasterBinaryReader
+	 * to fill a raster created with its palette, before it is shared.
+	 */
+	void setCellIndices(int x, int y, char character, int fgIndex, int bgIndex) {
+		Band band = bands[y >> bandShift];
+		int i = cellIndex(x, y);
+
+		band.chars[i] = character;
+		band.fgIndices[i] = (short) fgIndex;
+		band.bgIndices[i] = (short) bgIndex;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public char getCharAt(int x, int y) {
+		return bands[y >> bandShift].chars[cellIndex(x, y)];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getFgRgb(int x, int y) {
+		Band band = bands[y >> bandShift];
+		int i = cellIndex(x, y);
+		return band.fgIndices != null ? palette.getColor(band.fgIndices[i] & 0xFFFF) : band.forecolors[i];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getBgRgb(int x, int y) {
+		Band band = bands[y >> bandShift];
+		int i = cellIndex(x, y);
+		return band.bgIndices != null ? palette.getColor(band.bgIndices[i] & 0xFFFF) : band.backcolors[i];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+		reserveColors(fgRgb, bgRgb);
+
+		Band band = writableBand(y >> bandShift);
+		int i = cellIndex(x, y);
+
+		band.chars[i] = character;
+		if (band.fgIndices != null) {
+			band.fgIndices[i] = (short) colorIndex(fgRgb);
+			band.bgIndices[i] = (short) colorIndex(bgRgb);
+		} else {
+			band.forecolors[i] = fgRgb;
+			band.backcolors[i] = bgRgb;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setCharAt(int x, int y, char character) {
+		writableBand(y >> bandShift).chars[cellIndex(x, y)] = character;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void setFgRgb(int x, int y, int fgRgb) {
+		reserveColors(fgRgb, fgRgb);
+
+		Band band = writableBand(y >> bandShift);
+		int i = cellIndex(x, y);
+
+		if (band.fgIndices != null)
+			band.fgIndices[i] = (short) colorIndex(fgRgb);
+		else
+			band.forecolors[i] = fgRgb;
+	}
+
+	/**
+	 * Sets a span of cells in a row. The palette is looked up only once for each color.
+	 */
+	@Override
+	public synchronized void fillRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+		if (left >= right)
+			return;
+
+		reserveColors(fgRgb, bgRgb);
+
+		Band band = writableBand(y >> bandShift);
+		int from = cellIndex(left, y);
+		int to = cellIndex(right, y);
+
+		Arrays.fill(band.chars, from, to, character);
+		if (band.fgIndices != null) {
+			Arrays.fill(band.fgIndices, from, to, (short) colorIndex(fgRgb));
+			Arrays.fill(band.bgIndices, from, to, (short) colorIndex(bgRgb));
+		} else {
+			Arrays.fill(band.forecolors, from, to, fgRgb);
+			Arrays.fill(band.backcolors, from, to, bgRgb);
+		}
+	}
+
+	/**
+	 * Gets the index of a cell in the arrays of its band
+	 */
+	private int cellIndex(int x, int y) {
+		return (y & ((1 << bandShift) - 1)) * getWidth() + x;
+	}
+
+	/**
+	 * Gets a band of cells that can be modified, copying it if it may be shared
+	 * with copies or snapshots of the raster
+	 */
+	private Band writableBand(int index) {
+		if (!ownedBands.get(index)) {
+			bands[index] = bands[index].copy();
+			ownedBands.set(index);
+		}
+		return bands[index];
+	}
+
+	/**
+	 * Makes room in the palette for the specified colors, which are about to be written.
+	 * When the palette is full, it is compacted, and if there is still no room the
+	 * raster switches to storing colors directly.
+	 */
+	private void reserveColors(int fgRgb, int bgRgb) {
+		if (!indexed || palette.size() + 2 <= MAX_PALETTE_SIZE)
+			return;
+
+		if (palette.size() + missingColors(fgRgb, bgRgb) <= MAX_PALETTE_SIZE)
+			return;
+
+		compactPalette();
+
+		if (palette.size() + missingColors(fgRgb, bgRgb) > MAX_PALETTE_SIZE)
+			storeColorsDirectly();
+	}
+
+	private int missingColors(int fgRgb, int bgRgb) {
+		int missing = palette.indexOf(fgRgb) < 0 ? 1 : 0;
+		if (bgRgb != fgRgb && palette.indexOf(bgRgb) < 0)
+			++missing;
+		return missing;
+	}
+
+	/**
+	 * Gets the palette index of a color, adding it to the palette if necessary.
+	 * There must be room for the color, see reserveColors.
+	 */
+	private int colorIndex(int argb) {
+		if (argb == lastColor)
+			return lastIndex;
+
+		// a shared palette is copied only when a color is actually added
+		if (paletteShared && palette.indexOf(argb) < 0) {
+			palette = new ColorPalette(palette.toArray());
+			paletteShared = false;
+		}
+
+		int index = palette.add(argb);
+
+		lastColor = argb;
+		lastIndex = index;
+		return index;
+	}
+
+	/**
+	 * Removes from the palette the colors not used by any cell
+	 */
+	private void compactPalette() {
+		int[] remap = new int[palette.size()];
+		Arrays.fill(remap, -1);
+
+		ColorPalette compacted = new ColorPalette();
+
+		// all the indices are rewritten
+		for (int b = 0; b < bands.length; ++b) {
+			Band band = writableBand(b);
+
+			for (short[] indices : new short[][] { band.fgIndices, band.bgIndices }) {
+				for (int i = 0; i < indices.length; ++i) {
+					int index = indices[i] & 0xFFFF;
+					if (remap[index] < 0)
+						remap[index] = compacted.add(palette.getColor(index));
+					indices[i] = (short) remap[index];
+				}
+			}
+		}
+
+		// an empty raster still needs a color for index 0
+		if (compacted.size() == 0)
+			compacted.add(DEFAULT_RGB);
+
+		palette = compacted;
+		paletteShared = false;
+		lastColor = palette.getColor(0);
+		lastIndex = 0;
+	}
+
+	/**
+	 * Replaces the palette indices of the cells with their colors
+	 */
+	private void storeColorsDirectly() {
+		for (int b = 0; b < bands.length; ++b)
+			bands[b] = bands[b].withColors(palette);
+
+		ownedBands.set(0, bands.length);
+		indexed = false;
+	}
+
+	/**
+	 * The cells of a band of rows, in row-major order. The colors are stored either as
+	 * palette indices or directly, and the other arrays are null.
+	 */
+	private static final class Band {
+		final char[] chars;
+		final short[] fgIndices;
+		final short[] bgIndices;
+		final int[] forecolors;
+		final int[] backcolors;
+
+		/**
+		 * Creates a band of cells with character 0 and the colors of index 0
+		 */
+		Band(int cells) {
+			this(new char[cells], new short[cells], new short[cells], null, null);
+		}
+
+		private Band(char[] chars, short[] fgIndices, short[] bgIndices, int[] forecolors, int[] backcolors) {
+			this.chars = chars;
+			this.fgIndices = fgIndices;
+			this.bgIndices = bgIndices;
+			this.forecolors = forecolors;
+			this.backcolors = backcolors;
+		}
+
+		Band copy() {
+			if (fgIndices != null)
+				return new Band(chars.clone(), fgIndices.clone(), bgIndices.clone(), null, null);
+			return new Band(chars.clone(), null, null, forecolors.clone(), backcolors.clone());
+		}
+
+		/**
+		 * Creates a copy of the band that stores the colors of the cells instead of
+		 * their indices into the specified palette
+		 */
+		Band withColors(ColorPalette palette) {
+			int[] forecolors = new int[chars.length];
+			int[] backcolors = new int[chars.length];
+
+			for (int i = 0; i < chars.length; ++i) {
+				forecolors[i] = palette.getColor(fgIndices[i] & 0xFFFF);
+				backcolors[i] = palette.getColor(bgIndices[i] & 0xFFFF);
+			}
+
+			return new Band(chars.clone(), null, null, forecolors, backcolors);
+		}
+	}
+
+	/**
+	 * A read-only snapshot of an indexed raster. It shares the bands and the palette
+	 * of the raster, which are never modified once shared.
+	 */
+	private static final class Snapshot extends IndexedAsciiRaster {
+
+		Snapshot(IndexedAsciiRaster source) {
+			super(source);
+		}
+
+		@Override
+		public boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+			throw new UnsupportedOperationException("raster snapshot is read-only");
+		}
+
+		@Override
+		public void fillRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+			throw new UnsupportedOperationException("raster snapshot is read-only");
+		}
+
+		@Override
+		public void setCharAt(int x, int y, char character) {
+			throw new UnsupportedOperationException("raster snapshot is read-only");
+		}
+
+		@Override
+		public void setFgRgb(int x, int y, int fgRgb) {
+			throw new UnsupportedOperationException("raster snapshot is read-only");
+		}
+
+		/**
+		 * Returns the snapshot itself, since it never changes
+		 */
+		@Override
+		public AsciiRaster snapshot() {
+			return this;
+		}
+	}
+}
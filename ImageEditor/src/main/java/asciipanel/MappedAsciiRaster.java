@@ -0,0 +1,184 @@
+package asciipanel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only AsciiRaster backed by a file in binary format mapped into memory.
+ * Cells are decoded from the mapped file each time they are accessed, so the
+ * raster is available almost instantly regardless of the size of the file, and
+ * only the parts of the file that are actually accessed are loaded by the
+ * operating system.
+ * 
+ * Use clone() to obtain a modifiable copy, which reads the cells from the file until
+ * they are modified.
+ * 
+ * Since the cells are not decoded in advance, the palette indices of a corrupted
+ * file are detected only when the cell is read: the color getters then throw an
+ * UncheckedIOException instead of returning an arbitrary color.
+ * 
+ * @author Lorenzo Bianchi
+ * @see asciipanel.AsciiRasterBinaryReader
+ */
+public class MappedAsciiRaster extends AsciiRaster {
+
+	private final int[] palette;
+	private final int indexSize;
+	private final int recordSize;
+
+	// the cells are mapped in segments made of whole rows, since
+	// a single mapped buffer cannot be larger than 2 GB
+	private final MappedByteBuffer[] segments;
+	private final int rowsPerSegment;
+
+	/**
+	 * Maps the cells of a binary raster file into memory.
+	 * 
+	 * @param channel	  an open file channel
+	 * @param width		  number of columns in the grid
+	 * @param height	  number of lines in the grid
+	 * @param palette	  the colors of the palette
+	 * @param dataOffset  position in the file of the record of the first cell
+	 * @throws java.io.IOException thrown if the file is too short or cannot be mapped
+	 */
+	MappedAsciiRaster(FileChannel channel, int width, int height, int[] palette, long dataOffset) throws IOException {
+		super(width, height, false);
+
+		this.palette = palette;
+		this.indexSize = AsciiRasterBinaryReader.indexSize(palette.length);
+		this.recordSize = 1 + 2 * indexSize;
+
+		long rowSize = (long) width * recordSize;
+
+		if (channel.size() < dataOffset + rowSize * height)
+			throw new IOException("unexpected end of file");
+
+		rowsPerSegment = (int) Math.max(1, Integer.MAX_VALUE / Math.max(rowSize, 1));
+		segments = new MappedByteBuffer[(height + rowsPerSegment - 1) / rowsPerSegment];
+
+		for (int i = 0; i < segments.length; ++i) {
+			int rows = Math.min(rowsPerSegment, height - i * rowsPerSegment);
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+					dataOffset + i * rowsPerSegment * rowSize, rows * rowSize);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public char getCharAt(int x, int y) {
+		return (char) (segment(y).get(offset(x, y)) & 0xFF);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws java.io.UncheckedIOException thrown if the palette index of the cell is out of range
+	 */
+	@Override
+	public int getFgRgb(int x, int y) {
+		return getColor(segment(y), offset(x, y) + 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws java.io.UncheckedIOException thrown if the palette index of the cell is out of range
+	 */
+	@Override
+	public int getBgRgb(int x, int y) {
+		return getColor(segment(y), offset(x, y) + 1 + indexSize);
+	}
+
+	/**
+	 * Always throws UnsupportedOperationException, since the raster is read-only
+	 */
+	@Override
+	public void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+		throw new UnsupportedOperationException("mapped raster is read-only");
+	}
+
+	/**
+	 * Always throws UnsupportedOperationException, since the raster is read-only
+	 */
+	@Override
+	public void fillRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+		throw new UnsupportedOperationException("mapped raster is read-only");
+	}
+
+	/**
+	 * Always throws UnsupportedOperationException, since the raster is read-only
+	 */
+	@Override
+	public void setCharAt(int x, int y, char character) {
+		throw new UnsupportedOperationException("mapped raster is read-only");
+	}
+
+	/**
+	 * Always throws UnsupportedOperationException, since the raster is read-only
+	 */
+	@Override
+	public void setFgRgb(int x, int y, int fgRgb) {
+		throw new UnsupportedOperationException("mapped raster is read-only");
+	}
+
+	/**
+	 * Creates a modifiable copy of the raster, which takes time proportional to the
+	 * number of tiles and not of cells. The copy is a TiledAsciiRaster that decodes
+	 * the cells of a tile from this raster only when the tile is written for the
+	 * first time, so the first change to a large file does not decode all of it.
+	 */
+	@Override
+	public AsciiRaster clone() {
+		return new TiledAsciiRaster(this);
+	}
+
+	/**
+	 * Returns the raster itself, since it never changes
+	 */
+	@Override
+	public MappedAsciiRaster snapshot() {
+		return this;
+	}
+
+	private ByteBuffer segment(int y) {
+		return segments[y / rowsPerSegment];
+	}
+
+	private int offset(int x, int y) {
+		return ((y % rowsPerSegment) * getWidth() + x) * recordSize;
+	}
+
+	private int getColor(ByteBuffer buffer, int offset) {
+		int index = getIndex(buffer, offset);
+
+		// 4-byte indices can also be negative
+		if (index < 0 || index >= palette.length)
+			throw new UncheckedIOException(new IOException("invalid palette index " + index));
+
+		return palette[index];
+	}
+
+	private int getIndex(ByteBuffer buffer, int offset) {
+		switch (indexSize) {
+		case 1:
+			return buffer.get(offset) & 0xFF;
+		case 2:
+			return buffer.getShort(offset) & 0xFFFF;
+		default:
+			return buffer.getInt(offset);
+		}
+	}
+}
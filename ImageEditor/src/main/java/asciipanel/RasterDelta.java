@@ -0,0 +1,354 @@
+package asciipanel;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A sparse record of the changes made to the cells of an AsciiRaster, used to
+ * implement undo and redo without copying the whole raster.
+ * 
+ * A delta is filled by an AsciiPainter (see AsciiPainter.setDelta): before modifying
+ * a cell for the first time, the painter records its previous content. When the
+ * painting session is over, the delta is sealed, which captures the new content of
+ * the recorded cells. A sealed delta can then be reverted or applied again any
+ * number of times.
+ * 
+ * The memory used by a delta is proportional to the number of modified cells,
+ * regardless of the size of the raster: BYTES_PER_CELL bytes for each cell of a
+ * sealed delta. A delta can be limited to a maximum number of cells: when a change
+ * modifies more cells, the delta overflows, stops recording and can no longer be
+ * reverted.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class RasterDelta {
+
+	/**
+	 * Bytes used by each cell of a sealed delta: the position and the content of
+	 * the cell before and after the change. While recording, the set of recorded
+	 * positions takes between 16 and 32 more bytes per cell.
+	 */
+	public static final int BYTES_PER_CELL = 8 + 2 * (2 + 4 + 4);
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int rasterWidth;
+	private final int maxCells;
+
+	// recorded cells: position (y * width + x) and content before and after the change;
+	// positions are long, since tiled rasters may have more than 2^31 cells
+	private long[] positions = new long[INITIAL_CAPACITY];
+	private char[] beforeChars = new char[INITIAL_CAPACITY];
+	private int[] beforeFg = new int[INITIAL_CAPACITY];
+	private int[] beforeBg = new int[INITIAL_CAPACITY];
+	private char[] afterChars;
+	private int[] afterFg;
+	private int[] afterBg;
+	private int size;
+
+	// open addressing hash set of recorded positions (stored as position + 1, 0 means empty),
+	// only used while recording
+	private long[] recorded = new long[INITIAL_CAPACITY * 2];
+
+	// true when more than maxCells cells were modified
+	private boolean overflowed;
+
+	private int left = Integer.MAX_VALUE;
+	private int top = Integer.MAX_VALUE;
+	private int right = Integer.MIN_VALUE;
+	private int bottom = Integer.MIN_VALUE;
+
+	/**
+	 * Creates an empty delta for changes to the specified raster
+	 * 
+	 * @param raster the raster whose changes will be recorded
+	 */
+	public RasterDelta(AsciiRaster raster) {
+		this(raster, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates an empty delta for changes to the specified raster, which overflows
+	 * when more than the specified number of cells are modified
+	 * 
+	 * @param raster   the raster whose changes will be recorded
+	 * @param maxCells the maximum number of cells the delta can record
+	 */
+	public RasterDelta(AsciiRaster raster, int maxCells) {
+		if (raster == null)
+			throw new NullPointerException("raster cannot be null");
+		if (maxCells < 0)
+			throw new IllegalArgumentException("maxCells cannot be negative");
+
+		this.rasterWidth = raster.getWidth();
+		this.maxCells = maxCells;
+	}
+
+	/**
+	 * Records the content of a cell before it is modified. Only the first call for
+	 * a given cell is taken into account, since it holds the original content.
+	 * 
+	 * @param x			horizontal coordinate of the cell
+	 * @param y			vertical coordinate of the cell
+	 * @param character the character of the cell before the change
+	 * @param fgRgb		the foreground color of the cell before the change
+	 * @param bgRgb		the background color of the cell before the change
+	 */
+	public void record(int x, int y, char character, int fgRgb, int bgRgb) {
+		if (isSealed())
+			throw new IllegalStateException("cannot record into a sealed delta");
+
+		if (overflowed)
+			return;
+
+		long position = (long) y * rasterWidth + x;
+
+		if (size == maxCells) {
+			if (!containsRecorded(position))
+				overflow();
+			return;
+		}
+
+		if (!addRecorded(position))
+			return;
+
+		if (size == positions.length) {
+			int capacity = (int) Math.min(size * 2L, maxCells);
+			positions = Arrays.copyOf(positions, capacity);
+			beforeChars = Arrays.copyOf(beforeChars, capacity);
+			beforeFg = Arrays.copyOf(beforeFg, capacity);
+			beforeBg = Arrays.copyOf(beforeBg, capacity);
+		}
+
+		positions[size] = position;
+		beforeChars[size] = character;
+		beforeFg[size] = fgRgb;
+		beforeBg[size] = bgRgb;
+		++size;
+
+		left = Math.min(left, x);
+		top = Math.min(top, y);
+		right = Math.max(right, x + 1);
+		bottom = Math.max(bottom, y + 1);
+	}
+
+	/**
+	 * Records the content of all the cells inside a rectangle before they are modified,
+	 * like record() does for each of them. If the rectangle has more cells than the
+	 * delta can record, the delta overflows without reading them.
+	 * 
+	 * @param raster the raster whose changes are recorded
+	 * @param left   horizontal coordinate of the first column
+	 * @param top    vertical coordinate of the first row
+	 * @param right  horizontal coordinate of the column after the last one
+	 * @param bottom vertical coordinate of the row after the last one
+	 */
+	public void recordRect(AsciiRaster raster, int left, int top, int right, int bottom) {
+		if (isSealed())
+			throw new IllegalStateException("cannot record into a sealed delta");
+
+		if ((long) Math.max(right - left, 0) * Math.max(bottom - top, 0) > maxCells)
+			overflow();
+
+		for (int y = top; y < bottom && !overflowed; ++y)
+			for (int x = left; x < right; ++x)
+				record(x, y, raster.getCharAt(x, y), raster.getFgRgb(x, y), raster.getBgRgb(x, y));
+	}
+
+	/**
+	 * Returns true when the change modified more cells than the delta can record.
+	 * An overflowed delta records nothing and cannot be reverted or applied.
+	 * 
+	 * @return true if the delta overflowed
+	 */
+	public boolean isOverflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * Stops recording and releases the recorded cells
+	 */
+	private void overflow() {
+		overflowed = true;
+		size = 0;
+		positions = new long[0];
+		beforeChars = new char[0];
+		beforeFg = new int[0];
+		beforeBg = new int[0];
+		recorded = new long[INITIAL_CAPACITY * 2];
+	}
+
+	/**
+	 * Ends recording, capturing the current content of the recorded cells from
+	 * the raster. Calling this method on a sealed delta has no effect.
+	 * 
+	 * @param raster the raster whose changes have been recorded
+	 */
+	public void seal(AsciiRaster raster) {
+		if (isSealed())
+			return;
+
+		// release unused memory
+		positions = Arrays.copyOf(positions, size);
+		beforeChars = Arrays.copyOf(beforeChars, size);
+		beforeFg = Arrays.copyOf(beforeFg, size);
+		beforeBg = Arrays.copyOf(beforeBg, size);
+		recorded = null;
+
+		afterChars = new char[size];
+		afterFg = new int[size];
+		afterBg = new int[size];
+
+		for (int i = 0; i < size; ++i) {
+			int x = x(positions[i]);
+			int y = y(positions[i]);
+
+			afterChars[i] = raster.getCharAt(x, y);
+			afterFg[i] = raster.getFgRgb(x, y);
+			afterBg[i] = raster.getBgRgb(x, y);
+		}
+	}
+
+	/**
+	 * Returns true when recording has ended.
+	 * 
+	 * @return true if the delta is sealed
+	 */
+	public boolean isSealed() {
+		return recorded == null;
+	}
+
+	/**
+	 * Gets the number of recorded cells
+	 * 
+	 * @return the number of recorded cells
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if no cell has been recorded. An overflowed delta is not empty.
+	 * 
+	 * @return true if the delta is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0 && !overflowed;
+	}
+
+	/**
+	 * Gets the smallest rectangle that contains all recorded cells
+	 * 
+	 * @return a new Rectangle instance in cell coordinates, or null if the delta is empty
+	 */
+	public Rectangle getBounds() {
+		if (size == 0)
+			return null;
+
+		return new Rectangle(left, top, right - left, bottom - top);
+	}
+
+	/**
+	 * Restores the content the recorded cells had before the change, using the
+	 * specified painter so that the change is tracked like any other painting.
+	 * 
+	 * @param painter a painter whose surface is the raster the delta was recorded from
+	 */
+	public void revert(AsciiPainter painter) {
+		if (!isSealed())
+			throw new IllegalStateException("delta must be sealed before reverting it");
+		if (overflowed)
+			throw new IllegalStateException("delta overflowed");
+
+		// restore in reverse order of recording
+		for (int i = size - 1; i >= 0; --i)
+			painter.setCell(x(positions[i]), y(positions[i]), beforeChars[i], beforeFg[i], beforeBg[i]);
+	}
+
+	/**
+	 * Writes again the content the recorded cells had after the change, using the
+	 * specified painter so that the change is tracked like any other painting.
+	 * 
+	 * @param painter a painter whose surface is the raster the delta was recorded from
+	 */
+	public void apply(AsciiPainter painter) {
+		if (!isSealed())
+			throw new IllegalStateException("delta must be sealed before applying it");
+		if (overflowed)
+			throw new IllegalStateException("delta overflowed");
+
+		for (int i = 0; i < size; ++i)
+			painter.setCell(x(positions[i]), y(positions[i]), afterChars[i], afterFg[i], afterBg[i]);
+	}
+
+	private int x(long position) {
+		return (int) (position % rasterWidth);
+	}
+
+	private int y(long position) {
+		return (int) (position / rasterWidth);
+	}
+
+	/**
+	 * Adds a position to the set of recorded positions.
+	 * 
+	 * @return true if the position was not already recorded
+	 */
+	private boolean addRecorded(long position) {
+		int mask = recorded.length - 1;
+		int slot = hash(position) & mask;
+
+		while (recorded[slot] != 0) {
+			if (recorded[slot] == position + 1)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+
+		recorded[slot] = position + 1;
+
+		// keep the load factor at most 1/2
+		if ((size + 1) * 2 > recorded.length)
+			rehash(recorded.length * 2);
+
+		return true;
+	}
+
+	/**
+	 * Checks whether a position is in the set of recorded positions
+	 */
+	private boolean containsRecorded(long position) {
+		int mask = recorded.length - 1;
+		int slot = hash(position) & mask;
+
+		while (recorded[slot] != 0) {
+			if (recorded[slot] == position + 1)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+
+		return false;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = recorded;
+		int mask = capacity - 1;
+
+		recorded = new long[capacity];
+
+		for (long value : old) {
+			if (value == 0)
+				continue;
+
+			int slot = hash(value - 1) & mask;
+			while (recorded[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			recorded[slot] = value;
+		}
+	}
+
+	private static int hash(long position) {
+		int h = (int) (position ^ (position >>> 32)) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
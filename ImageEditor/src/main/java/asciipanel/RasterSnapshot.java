@@ -0,0 +1,269 @@
+package asciipanel;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A read-only snapshot of a raster that shares the cells of the source raster until
+ * they are modified. The source raster keeps its snapshots in a Tracker, and before
+ * modifying a band of rows it calls Tracker.preserveRows, which copies the band into
+ * the snapshots that still share it. Subclasses only have to read the cells shared
+ * with the source raster, see copyRows.
+ * 
+ * Snapshots are usually read by another thread than the one modifying the source,
+ * for example to save the raster in background. The source preserves a band under
+ * its own lock and writes the band afterwards, so the snapshot reads the shared cells
+ * a row at a time under the same lock. The preserved copies never change and are read
+ * without locking.
+ * 
+ * @author Lorenzo Bianchi
+ */
+abstract class RasterSnapshot extends AsciiRaster {
+
+	// approximate number of cells in a band of rows copied by copy-on-write
+	private static final int BAND_CELLS = 4096;
+
+	private final Object lock;
+	private final int bandRows;
+
+	// the preserved copy of each band, or null while it is shared with the source raster;
+	// accessed with the lock of the source raster held
+	private final Cells[] bands;
+
+	// the last row read, which is most often the one read next
+	private Row row;
+
+	/**
+	 * Creates a snapshot of the specified raster, with which it shares all bands
+	 * 
+	 * @param source the raster, whose lock is held while reading the shared cells
+	 */
+	RasterSnapshot(AsciiRaster source) {
+		super(source.getWidth(), source.getHeight(), false);
+
+		lock = source;
+		bandRows = bandRows(source.getWidth());
+		bands = new Cells[(source.getHeight() + bandRows - 1) / bandRows];
+	}
+
+	/**
+	 * Copies rows of the cells shared with the source raster into the specified arrays,
+	 * starting from index 0. Called with the lock of the source raster held, and only
+	 * for rows that have not been modified since the snapshot was taken.
+	 * 
+	 * @param top        vertical coordinate of the first row
+	 * @param bottom     vertical coordinate of the row after the last one
+	 * @param chars      the array where the characters are copied
+	 * @param forecolors the array where the foreground colors are copied in ARGB format
+	 * @param backcolors the array where the background colors are copied in ARGB format
+	 */
+	abstract void copyRows(int top, int bottom, char[] chars, int[] forecolors, int[] backcolors);
+
+	/**
+	 * Creates an empty modifiable raster of the same kind of the source raster,
+	 * into which clone() copies the snapshot
+	 */
+	abstract AsciiRaster createRaster(int width, int height);
+
+	/**
+	 * Gets the number of rows in a band copied by copy-on-write
+	 */
+	static int bandRows(int width) {
+		return Math.max(1, BAND_CELLS / Math.max(width, 1));
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public char getCharAt(int x, int y) {
+		Row row = row(y);
+		return row.cells.chars[row.offset + x];
+	}
+
+	@Override
+	public int getFgRgb(int x, int y) {
+		Row row = row(y);
+		return row.cells.forecolors[row.offset + x];
+	}
+
+	@Override
+	public int getBgRgb(int x, int y) {
+		Row row = row(y);
+		return row.cells.backcolors[row.offset + x];
+	}
+
+	private Row row(int y) {
+		// rows are immutable, so threads reading the snapshot at the same time
+		// can only lose each other's row
+		Row row = this.row;
+		if (row == null || row.y != y) {
+			row = readRow(y);
+			this.row = row;
+		}
+		return row;
+	}
+
+	private Row readRow(int y) {
+		int band = y / bandRows;
+		Cells cells;
+
+		synchronized (lock) {
+			cells = bands[band];
+
+			if (cells == null) {
+				cells = new Cells(getWidth());
+				copyRows(y, y + 1, cells.chars, cells.forecolors, cells.backcolors);
+				return new Row(y, cells, 0);
+			}
+		}
+
+		return new Row(y, cells, (y % bandRows) * getWidth());
+	}
+
+	private Cells copyBand(int band) {
+		int top = band * bandRows;
+		int bottom = Math.min(top + bandRows, getHeight());
+
+		Cells cells = new Cells((bottom - top) * getWidth());
+		copyRows(top, bottom, cells.chars, cells.forecolors, cells.backcolors);
+		return cells;
+	}
+
+	@Override
+	public void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+		throw new UnsupportedOperationException("raster snapshot is read-only");
+	}
+
+	@Override
+	public void fillRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+		throw new UnsupportedOperationException("raster snapshot is read-only");
+	}
+
+	@Override
+	public void setCharAt(int x, int y, char character) {
+		throw new UnsupportedOperationException("raster snapshot is read-only");
+	}
+
+	@Override
+	public void setFgRgb(int x, int y, int fgRgb) {
+		throw new UnsupportedOperationException("raster snapshot is read-only");
+	}
+
+	/**
+	 * Creates a modifiable copy of the snapshot
+	 */
+	@Override
+	public AsciiRaster clone() {
+		AsciiRaster copy = createRaster(getWidth(), getHeight());
+
+		for (int y = 0; y < getHeight(); ++y)
+			for (int x = 0; x < getWidth(); ++x)
+				copy.setCell(x, y, getCharAt(x, y), getFgRgb(x, y), getBgRgb(x, y));
+
+		return copy;
+	}
+
+	/**
+	 * Returns the snapshot itself, since it never changes
+	 */
+	@Override
+	public AsciiRaster snapshot() {
+		return this;
+	}
+
+	/**
+	 * The snapshots of a raster that may still share bands of rows with it, and the
+	 * bands that must be preserved before they are modified. All methods must be called
+	 * with the lock of the source raster held.
+	 */
+	static final class Tracker {
+		private final int bandRows;
+		private final List<WeakReference<RasterSnapshot>> snapshots = new ArrayList<WeakReference<RasterSnapshot>>();
+		private final BitSet sharedBands = new BitSet();
+
+		/**
+		 * Creates a tracker for the snapshots of a raster
+		 * 
+		 * @param width number of columns of the source raster
+		 */
+		Tracker(int width) {
+			bandRows = bandRows(width);
+		}
+
+		/**
+		 * Adds a new snapshot of the source raster, which shares all its bands
+		 */
+		void add(RasterSnapshot snapshot) {
+			snapshots.add(new WeakReference<RasterSnapshot>(snapshot));
+			sharedBands.set(0, snapshot.bands.length);
+		}
+
+		/**
+		 * Copies into the snapshots the bands of rows between top and bottom that are
+		 * still shared with them. Called by the source raster before modifying the rows.
+		 * 
+		 * @return false when no snapshot is left, so that the tracker can be discarded
+		 */
+		boolean preserveRows(int top, int bottom) {
+			int last = (bottom - 1) / bandRows;
+
+			for (int band = sharedBands.nextSetBit(top / bandRows); band >= 0 && band <= last;
+					band = sharedBands.nextSetBit(band + 1)) {
+				// the copy is shared by all the snapshots that still need it, since
+				// they all see the same content in the band
+				Cells copy = null;
+
+				for (Iterator<WeakReference<RasterSnapshot>> it = snapshots.iterator(); it.hasNext();) {
+					RasterSnapshot snapshot = it.next().get();
+					if (snapshot == null) {
+						it.remove();
+					} else if (snapshot.bands[band] == null) {
+						if (copy == null)
+							copy = snapshot.copyBand(band);
+						snapshot.bands[band] = copy;
+					}
+				}
+
+				sharedBands.clear(band);
+			}
+
+			return !snapshots.isEmpty();
+		}
+	}
+
+	/**
+	 * A copy of some rows of cells, which is never modified
+	 */
+	private static final class Cells {
+		final char[] chars;
+		final int[] forecolors;
+		final int[] backcolors;
+
+		Cells(int size) {
+			chars = new char[size];
+			forecolors = new int[size];
+			backcolors = new int[size];
+		}
+	}
+
+	/**
+	 * A row of the snapshot: the copy that contains it and the index of its first cell
+	 */
+	private static final class Row {
+		final int y;
+		final Cells cells;
+		final int offset;
+
+		Row(int y, Cells cells, int offset) {
+			this.y = y;
+			this.cells = cells;
+			this.offset = offset;
+		}
+	}
+}
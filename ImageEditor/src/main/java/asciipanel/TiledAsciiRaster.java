@@ -0,0 +1,433 @@
+package asciipanel;
+
+import java.util.Arrays;
+
+/**
+ * An AsciiRaster that stores its cells in square tiles of TILE_SIZE x TILE_SIZE cells,
+ * allocated only when they are written. This makes very large rasters possible when
+ * most of their area is blank or uniform: memory is proportional to the painted area.
+ * 
+ * Tiles that have never been written, and tiles completely covered by fillRect or made
+ * uniform by compact, are shared between many positions and are copied the first time
+ * one of their cells changes. Copies and snapshots of the raster share all tiles in the
+ * same way, so they take time proportional to the number of tiles and not of cells.
+ * 
+ * A tiled raster can also be created as a copy of a read-only raster whose tiles are
+ * loaded lazily: cells are read from the source raster until their tile is written for
+ * the first time, and only then the tile is copied. This makes copying a raster mapped
+ * from a file as fast as copying a tiled raster.
+ * 
+ * Different threads may write to different cells at the same time with setCell,
+ * setCharAt, setFgRgb and fillRow, as long as each cell is written by a single
+ * thread: the copy of a shared tile is synchronized, so threads writing to the same
+ * tile get the same copy. fillRect, compact, clone and snapshot must not run while
+ * other threads write to the tiles they replace or share.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class TiledAsciiRaster extends AsciiRaster {
+
+	/**
+	 * Number of rows and columns of cells in a tile
+	 */
+	public static final int TILE_SIZE = 64;
+
+	private static final int TILE_SHIFT = 6;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+
+	// the tile of cells that have never been written
+	private static final Tile EMPTY = new Tile((char) 0, DEFAULT_RGB, DEFAULT_RGB);
+
+	private final int tilesAcross;
+	private Tile[] tiles;
+
+	// the read-only raster of the tiles that are still null, which have not been loaded
+	private final AsciiRaster source;
+
+	// the last uniform tile created by fillRect, reused by the next fills with the same content
+	private Tile lastUniform = EMPTY;
+
+	/**
+	 * Class constructor
+	 * @param width number of columns in the grid
+	 * @param height number of lines in the grid
+	 */
+	public TiledAsciiRaster(int width, int height) {
+		this(width, height, null);
+	}
+
+	/**
+	 * Creates a modifiable copy of a read-only raster, whose tiles are copied from
+	 * the source raster only when they are written for the first time
+	 * 
+	 * @param source a read-only raster, see AsciiRaster.isReadOnly()
+	 */
+	TiledAsciiRaster(AsciiRaster source) {
+		this(source.getWidth(), source.getHeight(), source);
+
+		if (!source.isReadOnly())
+			throw new IllegalArgumentException("source raster must be read-only");
+	}
+
+	private TiledAsciiRaster(int width, int height, AsciiRaster source) {
+		super(width, height, false);
+
+		this.source = source;
+
+		tilesAcross = (width + TILE_MASK) >> TILE_SHIFT;
+		tiles = new Tile[tilesAcross * ((height + TILE_MASK) >> TILE_SHIFT)];
+
+		if (source == null)
+			Arrays.fill(tiles, EMPTY);
+	}
+
+	/**
+	 * Creates a copy of the raster. All tiles become shared between the raster and
+	 * the copy, and each one is copied when either of them modifies it.
+	 */
+	@Override
+	public synchronized TiledAsciiRaster clone() {
+		TiledAsciiRaster copy = new TiledAsciiRaster(getWidth(), getHeight(), source);
+
+		for (int i = 0; i < tiles.length; ++i) {
+			if (tiles[i] != null)
+				tiles[i].shared = true;
+			copy.tiles[i] = tiles[i];
+		}
+
+		copy.lastUniform = lastUniform;
+		return copy;
+	}
+
+	/**
+	 * Creates a snapshot of the raster, which for a tiled raster is a modifiable copy
+	 * sharing all its tiles, as created by clone().
+	 */
+	@Override
+	public TiledAsciiRaster snapshot() {
+		return clone();
+	}
+
+	/**
+	 * Gets the number of tiles that are not shared, which is a measure of the
+	 * memory used by the raster since it was last copied
+	 * 
+	 * @return the number of tiles owned by this raster
+	 */
+	public int getAllocatedTileCount() {
+		int count = 0;
+		for (Tile tile : tiles)
+			if (tile != null && !tile.shared)
+				++count;
+		return count;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public char getCharAt(int x, int y) {
+		Tile tile = tile(x, y);
+		return tile != null ? tile.chars[cell(x, y)] : source.getCharAt(x, y);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getFgRgb(int x, int y) {
+		Tile tile = tile(x, y);
+		return tile != null ? tile.forecolors[cell(x, y)] : source.getFgRgb(x, y);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getBgRgb(int x, int y) {
+		Tile tile = tile(x, y);
+		return tile != null ? tile.backcolors[cell(x, y)] : source.getBgRgb(x, y);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setCell(int x, int y, char character, int fgRgb, int bgRgb) {
+		int index = tileIndex(x, y);
+		int i = cell(x, y);
+		Tile tile = tiles[index];
+
+		// writing the content a shared tile already has does not allocate it
+		if (tile != null && tile.shared && tile.chars[i] == character && tile.forecolors[i] == fgRgb && tile.backcolors[i] == bgRgb)
+			return;
+
+		tile = writableTile(index);
+		tile.chars[i] = character;
+		tile.forecolors[i] = fgRgb;
+		tile.backcolors[i] = bgRgb;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setCharAt(int x, int y, char character) {
+		int index = tileIndex(x, y);
+		int i = cell(x, y);
+
+		if (getCharAt(x, y) != character)
+			writableTile(index).chars[i] = character;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setFgRgb(int x, int y, int fgRgb) {
+		int index = tileIndex(x, y);
+		int i = cell(x, y);
+
+		if (getFgRgb(x, y) != fgRgb)
+			writableTile(index).forecolors[i] = fgRgb;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void fillRow(int y, int left, int right, char character, int fgRgb, int bgRgb) {
+		int row = (y & TILE_MASK) << TILE_SHIFT;
+
+		while (left < right) {
+			int tileRight = Math.min((left | TILE_MASK) + 1, right);
+			int index = tileIndex(left, y);
+			Tile tile = tiles[index];
+
+			if (tile == null || !tile.isUniform(character, fgRgb, bgRgb)) {
+				tile = writableTile(index);
+
+				int from = row + (left & TILE_MASK);
+				int to = from + (tileRight - left);
+				Arrays.fill(tile.chars, from, to, character);
+				Arrays.fill(tile.forecolors, from, to, fgRgb);
+				Arrays.fill(tile.backcolors, from, to, bgRgb);
+			}
+
+			left = tileRight;
+		}
+	}
+
+	/**
+	 * Sets all the cells inside a rectangle. Tiles completely covered by the rectangle
+	 * are replaced by a single shared tile.
+	 * 
+	 * @param left      horizontal coordinate of the first column
+	 * @param top       vertical coordinate of the first row
+	 * @param right     horizontal coordinate of the column after the last one
+	 * @param bottom    vertical coordinate of the row after the last one
+	 * @param character the character code of the cells
+	 * @param fgRgb     the foreground color of the cells in ARGB format
+	 * @param bgRgb     the background color of the cells in ARGB format
+	 */
+	@Override
+	public void fillRect(int left, int top, int right, int bottom, char character, int fgRgb, int bgRgb) {
+		if (left >= right || top >= bottom)
+			return;
+
+		for (int ty = top >> TILE_SHIFT; ty <= (bottom - 1) >> TILE_SHIFT; ++ty) {
+			int tileTop = ty << TILE_SHIFT;
+			int tileBottom = Math.min(tileTop + TILE_SIZE, getHeight());
+			int rowTop = Math.max(top, tileTop);
+			int rowBottom = Math.min(bottom, tileBottom);
+
+			for (int tx = left >> TILE_SHIFT; tx <= (right - 1) >> TILE_SHIFT; ++tx) {
+				int tileLeft = tx << TILE_SHIFT;
+				int tileRight = Math.min(tileLeft + TILE_SIZE, getWidth());
+				int colLeft = Math.max(left, tileLeft);
+				int colRight = Math.min(right, tileRight);
+
+				// the cells of a tile that lie outside the raster do not matter
+				if (colLeft == tileLeft && colRight == tileRight && rowTop == tileTop && rowBottom == tileBottom) {
+					tiles[ty * tilesAcross + tx] = uniformTile(character, fgRgb, bgRgb);
+				} else {
+					for (int y = rowTop; y < rowBottom; ++y)
+						fillRow(y, colLeft, colRight, character, fgRgb, bgRgb);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replaces the tiles intersecting the specified rectangle whose cells are all
+	 * equal by shared tiles, releasing their memory, so that uniform areas of large
+	 * files do not remain allocated after loading.
+	 */
+	@Override
+	public void compact(int left, int top, int right, int bottom) {
+		if (left >= right || top >= bottom)
+			return;
+
+		for (int ty = top >> TILE_SHIFT; ty <= (bottom - 1) >> TILE_SHIFT; ++ty) {
+			for (int tx = left >> TILE_SHIFT; tx <= (right - 1) >> TILE_SHIFT; ++tx) {
+				int index = ty * tilesAcross + tx;
+				Tile tile = tiles[index];
+
+				int columns = Math.min(TILE_SIZE, getWidth() - (tx << TILE_SHIFT));
+				int rows = Math.min(TILE_SIZE, getHeight() - (ty << TILE_SHIFT));
+
+				if (tile != null && !tile.shared && tile.allCellsEqual(columns, rows))
+					tiles[index] = uniformTile(tile.chars[0], tile.forecolors[0], tile.backcolors[0]);
+			}
+		}
+	}
+
+	/**
+	 * Compacts the tiles of the row when it is the last row of their tiles, since
+	 * the rows above it have already been written
+	 */
+	@Override
+	public void rowWritten(int y, int left, int right) {
+		if (((y + 1) & TILE_MASK) == 0 || y + 1 == getHeight())
+			compact(left, y & ~TILE_MASK, right, y + 1);
+	}
+
+	/**
+	 * Compacts the tiles of the column when it is the last column of their tiles,
+	 * since the columns to its left have already been written
+	 */
+	@Override
+	public void columnWritten(int x, int top, int bottom) {
+		if (((x + 1) & TILE_MASK) == 0 || x + 1 == getWidth())
+			compact(x & ~TILE_MASK, top, x + 1, bottom);
+	}
+
+	private Tile tile(int x, int y) {
+		return tiles[tileIndex(x, y)];
+	}
+
+	private int tileIndex(int x, int y) {
+		return (y >> TILE_SHIFT) * tilesAcross + (x >> TILE_SHIFT);
+	}
+
+	private static int cell(int x, int y) {
+		return ((y & TILE_MASK) << TILE_SHIFT) | (x & TILE_MASK);
+	}
+
+	/**
+	 * Gets a tile that can be modified, copying it if it is shared or loading it
+	 * from the source raster if it has not been loaded yet
+	 */
+	private Tile writableTile(int index) {
+		Tile tile = tiles[index];
+		return tile == null || tile.shared ? copyTile(index) : tile;
+	}
+
+	// synchronized, so that threads writing cells of the same shared tile get the same copy
+	private synchronized Tile copyTile(int index) {
+		Tile tile = tiles[index];
+		if (tile == null) {
+			tile = loadTile(index);
+			tiles[index] = tile;
+		} else if (tile.shared) {
+			tile = new Tile(tile);
+			tiles[index] = tile;
+		}
+		return tile;
+	}
+
+	/**
+	 * Copies the cells of a tile from the source raster
+	 */
+	private Tile loadTile(int index) {
+		int left = (index % tilesAcross) << TILE_SHIFT;
+		int top = (index / tilesAcross) << TILE_SHIFT;
+		int right = Math.min(left + TILE_SIZE, getWidth());
+		int bottom = Math.min(top + TILE_SIZE, getHeight());
+
+		// the cells of the tile that lie outside the raster keep the content of EMPTY
+		Tile tile = new Tile(EMPTY);
+
+		for (int y = top; y < bottom; ++y) {
+			for (int x = left; x < right; ++x) {
+				int i = cell(x, y);
+				tile.chars[i] = source.getCharAt(x, y);
+				tile.forecolors[i] = source.getFgRgb(x, y);
+				tile.backcolors[i] = source.getBgRgb(x, y);
+			}
+		}
+
+		return tile;
+	}
+
+	private synchronized Tile uniformTile(char character, int fgRgb, int bgRgb) {
+		if (EMPTY.isUniform(character, fgRgb, bgRgb))
+			return EMPTY;
+
+		if (!lastUniform.isUniform(character, fgRgb, bgRgb))
+			lastUniform = new Tile(character, fgRgb, bgRgb);
+
+		return lastUniform;
+	}
+
+	/**
+	 * The cells of a tile, stored in row-major order. Shared tiles are never modified,
+	 * and a tile owned by a raster becomes shared when the raster is copied.
+	 */
+	private static final class Tile {
+		final char[] chars;
+		final int[] forecolors;
+		final int[] backcolors;
+		// volatile, since writers check it without locking before copying the tile
+		volatile boolean shared;
+
+		// true when all cells are known to have the same content
+		final boolean uniform;
+
+		/**
+		 * Creates a shared tile where all cells have the same content
+		 */
+		Tile(char character, int fgRgb, int bgRgb) {
+			chars = new char[TILE_SIZE * TILE_SIZE];
+			forecolors = new int[TILE_SIZE * TILE_SIZE];
+			backcolors = new int[TILE_SIZE * TILE_SIZE];
+			shared = true;
+			uniform = true;
+
+			Arrays.fill(chars, character);
+			Arrays.fill(forecolors, fgRgb);
+			Arrays.fill(backcolors, bgRgb);
+		}
+
+		/**
+		 * Creates a modifiable copy of a tile
+		 */
+		Tile(Tile tile) {
+			chars = tile.chars.clone();
+			forecolors = tile.forecolors.clone();
+			backcolors = tile.backcolors.clone();
+			shared = false;
+			uniform = false;
+		}
+
+		/**
+		 * Checks whether the tile is a uniform tile with the specified content
+		 */
+		boolean isUniform(char character, int fgRgb, int bgRgb) {
+			return uniform && chars[0] == character && forecolors[0] == fgRgb && backcolors[0] == bgRgb;
+		}
+
+		/**
+		 * Checks whether the cells in the specified number of columns and rows
+		 * from the top left corner have all the same content
+		 */
+		boolean allCellsEqual(int columns, int rows) {
+			for (int y = 0; y < rows; ++y) {
+				for (int i = y << TILE_SHIFT, end = i + columns; i < end; ++i)
+					if (chars[i] != chars[0] || forecolors[i] != forecolors[0] || backcolors[i] != backcolors[0])
+						return false;
+			}
+			return true;
+		}
+	}
+}
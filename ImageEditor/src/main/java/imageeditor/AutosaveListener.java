@@ -0,0 +1,18 @@
+package imageeditor;
+
+/**
+ * Listener for the failures of an AutosaveService, so that the editor can tell
+ * the user that the changes are not being saved.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public interface AutosaveListener {
+	/**
+	 * Handles a failed autosave. Called on the event dispatch thread, only for the
+	 * first failure after a successful autosave, since the service tries again at
+	 * each interval.
+	 * 
+	 * @param ex the error that prevented the raster from being saved
+	 */
+	void autosaveFailed(Exception ex);
+}
@@ -0,0 +1,331 @@
+package imageeditor;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import asciipanel.AsciiPanelModel;
+import asciipanel.AsciiRaster;
+
+/**
+ * Saves the raster of a panel model to a file at regular intervals, so that the
+ * changes can be recovered if the editor is not closed properly.
+ * 
+ * The raster is saved only if it changed since the last save. On the event dispatch
+ * thread the service only takes a snapshot of the raster, which does not copy the
+ * cells; the snapshot is written in the run-length encoded text format by a background
+ * thread with low priority. The file is written through ImageEditor.writeRaster, which
+ * replaces the previous autosave atomically, so a crash while writing leaves the
+ * previous one.
+ * 
+ * Each editor running at the same time uses its own autosave file, numbered from 0,
+ * and holds a lock on the lock file with the same number while it runs. The file is
+ * deleted by shutdown() when the editor is closed normally, so if the editor can lock
+ * a file that exists, it contains the changes of a session that crashed. The files
+ * of the editors still running are locked, so they are never offered for recovery.
+ * 
+ * Autosaves that fail are reported to an AutosaveListener.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class AutosaveService implements Observer {
+
+	/**
+	 * Default interval between two autosaves, in milliseconds
+	 */
+	public static final int DEFAULT_INTERVAL = 60000;
+
+	/**
+	 * Prefix of the names of the autosave files and of their lock files, which are
+	 * followed by a number and by the extension
+	 */
+	public static final String FILE_PREFIX = "autosave-";
+
+	/**
+	 * Maximum number of editors that can autosave into the same directory
+	 */
+	public static final int MAX_FILES = 100;
+
+	/**
+	 * Maximum time shutdown() waits for the autosave in progress, in milliseconds
+	 */
+	public static final int SHUTDOWN_TIMEOUT = 10000;
+
+	private static final String LOCK_EXTENSION = ".lock";
+
+	private final AsciiPanelModel model;
+	private final File directory;
+	private final Timer timer;
+	private final ExecutorService writer;
+
+	// the autosave file and the lock held on its lock file, null until lock() is called
+	private File file;
+	private FileChannel lockChannel;
+
+	private AutosaveListener listener;
+
+	// set when a failure has been reported, cleared when an autosave succeeds
+	private final AtomicBoolean failureReported = new AtomicBoolean(false);
+
+	// set when the raster changes, cleared when a snapshot is taken
+	private final AtomicBoolean modified = new AtomicBoolean(false);
+
+	// set while a snapshot is being written, so that writes do not queue up
+	private final AtomicBoolean writing = new AtomicBoolean(false);
+
+	/**
+	 * Initializes the service. The autosave file is chosen by lock(), and autosaves do
+	 * not start until start() is called.
+	 * 
+	 * @param model     the model whose raster is saved
+	 * @param directory the directory of the autosave files, which is created if necessary
+	 * @param interval  interval between two autosaves, in milliseconds
+	 */
+	public AutosaveService(AsciiPanelModel model, File directory, int interval) {
+		if (model == null)
+			throw new NullPointerException("model");
+		if (directory == null)
+			throw new NullPointerException("directory");
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive");
+
+		this.model = model;
+		this.directory = directory;
+
+		timer = new Timer(interval, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				autosave();
+			}
+		});
+
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "autosave");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Gets the autosave file
+	 * 
+	 * @return the file where the raster is saved, or null if lock() has not been called
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Sets the listener that is notified when an autosave fails
+	 * 
+	 * @param listener the listener, or null
+	 */
+	public void setListener(AutosaveListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Chooses the autosave file of this editor: the first one whose lock file is not
+	 * locked by another editor. The lock is held until shutdown(). If the file
+	 * exists, it was left by a session that crashed, see hasRecoveryFile().
+	 * 
+	 * @throws IOException thrown if the directory or the lock files cannot be created,
+	 *                     or if all the autosave files are in use
+	 */
+	public void lock() throws IOException {
+		if (file != null)
+			return;
+
+		Files.createDirectories(directory.toPath());
+
+		for (int i = 0; i < MAX_FILES; ++i) {
+			File lockFile = new File(directory, FILE_PREFIX + i + LOCK_EXTENSION);
+			FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = null;
+
+			try {
+				lock = channel.tryLock();
+			} catch (OverlappingFileLockException ex) {
+				// locked by another service in this virtual machine
+			} finally {
+				if (lock == null)
+					channel.close();
+			}
+
+			if (lock != null) {
+				lockChannel = channel;
+				file = new File(directory, FILE_PREFIX + i + ImageEditor.RUN_LENGTH_FORMAT_EXTENSION);
+				return;
+			}
+		}
+
+		throw new IOException("all the autosave files in " + directory + " are in use");
+	}
+
+	/**
+	 * Gets the interval between two autosaves
+	 * 
+	 * @return the interval in milliseconds
+	 */
+	public int getInterval() {
+		return timer.getDelay();
+	}
+
+	/**
+	 * Sets the interval between two autosaves
+	 * 
+	 * @param interval the interval in milliseconds
+	 */
+	public void setInterval(int interval) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval must be positive");
+
+		timer.setDelay(interval);
+		timer.setInitialDelay(interval);
+		if (timer.isRunning())
+			timer.restart();
+	}
+
+	/**
+	 * Tells whether an autosave file was left by a session that was not closed properly
+	 * 
+	 * @return true if there is an autosave file to recover
+	 */
+	public boolean hasRecoveryFile() {
+		return file != null && file.isFile();
+	}
+
+	/**
+	 * Deletes the autosave file, if any
+	 * 
+	 * @throws IOException thrown if the file cannot be deleted
+	 */
+	public void deleteFile() throws IOException {
+		if (file != null)
+			Files.deleteIfExists(file.toPath());
+	}
+
+	/**
+	 * Starts observing the model and saving its raster at regular intervals.
+	 * Must be called on the event dispatch thread, after lock().
+	 */
+	public void start() {
+		if (file == null)
+			throw new IllegalStateException("the autosave file must be locked before starting");
+
+		model.addObserver(this);
+		timer.start();
+	}
+
+	/**
+	 * Stops the autosaves, waits for the one in progress to complete, deletes the
+	 * autosave file and releases its lock. Called when the editor is closed normally.
+	 * Must be called on the event dispatch thread.
+	 * 
+	 * The wait blocks the event dispatch thread for up to SHUTDOWN_TIMEOUT milliseconds,
+	 * so the user interface does not respond until the autosave in progress completes.
+	 * It is only meant to be called while the editor is closing, when the last autosave
+	 * should not be lost for the sake of repainting. If the autosave does not complete
+	 * in time, the file is kept, since it could be written after being deleted, and it
+	 * is offered for recovery the next time.
+	 * 
+	 * @throws IOException thrown if the file cannot be deleted
+	 */
+	public void shutdown() throws IOException {
+		timer.stop();
+		model.deleteObserver(this);
+		writer.shutdown();
+
+		boolean terminated = false;
+		try {
+			terminated = writer.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			if (terminated)
+				deleteFile();
+		} finally {
+			// closing the channel releases the lock; the lock file is kept, since
+			// deleting it would let two editors lock different files with the same name
+			if (lockChannel != null)
+				lockChannel.close();
+			lockChannel = null;
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the raster, if it changed, and writes it in background.
+	 * If the previous snapshot is still being written, the raster is saved at the
+	 * next interval instead.
+	 */
+	private void autosave() {
+		if (!modified.get() || !writing.compareAndSet(false, true))
+			return;
+
+		modified.set(false);
+		final AsciiRaster snapshot = model.getRaster().snapshot();
+
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Files.createDirectories(file.getParentFile().toPath());
+					ImageEditor.writeRaster(file, snapshot);
+					failureReported.set(false);
+				} catch (IOException | RuntimeException ex) {
+					// try again at the next interval; runtime exceptions are caught too,
+					// since they would be swallowed by the executor and stop the autosaves
+					modified.set(true);
+					if (!failureReported.getAndSet(true))
+						reportFailure(ex);
+				} finally {
+					writing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Notifies the listener of a failed autosave on the event dispatch thread
+	 */
+	private void reportFailure(final Exception ex) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				if (listener != null)
+					listener.autosaveFailed(ex);
+			}
+		});
+	}
+
+	/**
+	 * Marks the raster as modified when the model notifies a change of its content
+	 */
+	@Override
+	public void update(Observable o, Object arg) {
+		if (!AsciiPanelModel.FONT.equals(arg))
+			modified.set(true);
+	}
+}
@@ -0,0 +1,448 @@
+package imageeditor;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import asciipanel.AsciiFont;
+import asciipanel.AsciiRaster;
+
+/**
+ * Command line tool that converts images to ASCII art without opening the editor.
+ * Each image is converted with ImageConverter, like the import command of the editor
+ * does, and saved in text format next to it, or in the output directory if one is
+ * specified. Several images are converted at the same time on a fixed number of
+ * worker threads.
+ * 
+ * Usage: BatchConverter [options] input...
+ * 
+ * Each input is a file, a directory (all of its images are converted) or a glob
+ * pattern such as photos/**.jpg, which is expanded by the tool when the shell does
+ * not expand it. The options are:
+ * 
+ * -size WxH       size of the rasters, in cells (default 80x60)
+ * -font NAME      name of a font constant of AsciiFont (default CP437_16x16)
+ * -threshold N    brightness limit of the conversion, from 0 to 255 (default 240)
+ * -reduceColors   reduces the image to 16 colors before the conversion
+ * -threads N      number of images converted at the same time (default: one per processor)
+ * -o DIR          directory where the converted files are written
+ * -rle            writes the files in the run-length encoded text format
+ * 
+ * Each output file has the name of its image with the extension of the text format,
+ * or of the run-length encoded text format with -rle, so the tool fails before
+ * converting anything if two images would be written to the same file, such as
+ * a/x.jpg and b/x.jpg with -o, or x.jpg and x.png in the same directory.
+ * 
+ * The tool always runs with java.awt.headless set to true.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class BatchConverter {
+
+	private static final String USAGE = "usage: BatchConverter [-size WxH] [-font NAME] [-threshold N] "
+			+ "[-reduceColors] [-threads N] [-o DIR] [-rle] input...";
+
+	private int width = 80;
+	private int height = 60;
+	private AsciiFont font = AsciiFont.CP437_16x16;
+	private int threshold = 240;
+	private boolean allColors = true;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private File outputDirectory = null;
+	private boolean runLength = false;
+
+	private final AtomicInteger converted = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong bytesRead = new AtomicLong();
+
+	/**
+	 * Initializes a batch converter
+	 * 
+	 * @param width     width of the rasters, in cells
+	 * @param height    height of the rasters, in cells
+	 * @param font      the font used by the conversion
+	 * @param threshold the brightness limit used by the conversion
+	 * @param allColors when this option is false, reduces the colors in the images before conversion
+	 */
+	public BatchConverter(int width, int height, AsciiFont font, int threshold, boolean allColors) {
+		if (font == null)
+			throw new NullPointerException("font");
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("raster size must be positive");
+		if (threshold < 0 || threshold > 255)
+			throw new IllegalArgumentException("threshold must be between 0 and 255");
+
+		this.width = width;
+		this.height = height;
+		this.font = font;
+		this.threshold = threshold;
+		this.allColors = allColors;
+	}
+
+	private BatchConverter() {
+	}
+
+	/**
+	 * Sets the number of images converted at the same time
+	 * 
+	 * @param threads number of worker threads, at least 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be at least 1");
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the directory where the converted files are written. When it is null,
+	 * each file is written in the same directory of its image.
+	 * 
+	 * @param outputDirectory the output directory, or null
+	 */
+	public void setOutputDirectory(File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	/**
+	 * Sets the format of the converted files: the run-length encoded text format,
+	 * which is much smaller, or the text format, which previous versions of the
+	 * editor can read. The text format is used by default.
+	 * 
+	 * @param runLength true to write the files in the run-length encoded text format
+	 */
+	public void setRunLength(boolean runLength) {
+		this.runLength = runLength;
+	}
+
+	/**
+	 * Gets the number of images converted successfully by the last call to convert()
+	 * 
+	 * @return number of converted images
+	 */
+	public int getConvertedCount() {
+		return converted.get();
+	}
+
+	/**
+	 * Gets the number of images that could not be converted by the last call to convert()
+	 * 
+	 * @return number of failed images
+	 */
+	public int getFailedCount() {
+		return failed.get();
+	}
+
+	/**
+	 * Gets the total size of the images converted by the last call to convert()
+	 * 
+	 * @return number of bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	/**
+	 * Converts the given images and waits for the conversions to complete. Images
+	 * that cannot be read or written are reported on the standard error and skipped.
+	 * 
+	 * The conversion of each image is a task that reads, converts and writes it. At most
+	 * twice as many tasks as worker threads wait in the queue of the workers; when the
+	 * queue is full, the calling thread runs the next task itself, so that it does not
+	 * queue a task for every file when the workers are slower than the files are listed.
+	 * Queued tasks have not read their image yet, so at most one decoded image for each
+	 * worker thread and one for the calling thread are in memory at any time.
+	 * 
+	 * @param files the image files to convert
+	 * @throws InterruptedException     thrown if the calling thread is interrupted while waiting
+	 * @throws IllegalArgumentException thrown if two images would be written to the same
+	 *                                  file, in which case nothing is converted
+	 */
+	public void convert(List<File> files) throws InterruptedException {
+		checkOutputFiles(files);
+
+		converted.set(0);
+		failed.set(0);
+		bytesRead.set(0);
+
+		// when the queue is full, the calling thread converts the next image itself
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(threads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+
+		try {
+			for (final File file : files) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						convertFile(file);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+	}
+
+	private void convertFile(File file) {
+		try {
+			BufferedImage image = ImageEditor.readImage(file, width, height);
+			if (image == null) {
+				System.err.println(file + ": unknown image format");
+				failed.incrementAndGet();
+				return;
+			}
+
+			AsciiRaster raster = AsciiRaster.create(width, height);
+			new ImageConverter(font, threshold, allColors).convertTo(raster, image);
+
+			ImageEditor.writeRaster(getOutputFile(file), raster);
+
+			bytesRead.addAndGet(file.length());
+			converted.incrementAndGet();
+		} catch (IOException | RuntimeException ex) {
+			System.err.println(file + ": " + ex.getMessage());
+			failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Checks that no two images are written to the same output file
+	 */
+	private void checkOutputFiles(List<File> files) {
+		Map<Path, File> inputs = new HashMap<>();
+
+		for (File file : files) {
+			Path output = normalize(getOutputFile(file));
+			File other = inputs.put(output, file);
+			if (other != null && !normalize(other).equals(normalize(file)))
+				throw new IllegalArgumentException(other + " and " + file + " would both be converted to " + output);
+		}
+	}
+
+	private static Path normalize(File file) {
+		return file.getAbsoluteFile().toPath().normalize();
+	}
+
+	private File getOutputFile(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		name += runLength ? ImageEditor.RUN_LENGTH_FORMAT_EXTENSION : ImageEditor.TEXT_FORMAT_EXTENSION;
+
+		File directory = outputDirectory != null ? outputDirectory : file.getAbsoluteFile().getParentFile();
+		return new File(directory, name);
+	}
+
+	/**
+	 * Expands the inputs given on the command line into a list of files. An input
+	 * can be a file, a directory, whose image files are all returned, or a glob pattern.
+	 * The pattern is matched against the paths below its longest directory prefix
+	 * without wildcards.
+	 * 
+	 * @param inputs files, directories or glob patterns
+	 * @return the matching files, without duplicates
+	 * @throws IOException thrown if an error occurs while listing a directory
+	 */
+	public static List<File> expand(List<String> inputs) throws IOException {
+		Set<File> files = new LinkedHashSet<>();
+
+		for (String input : inputs) {
+			File file = new File(input);
+
+			if (file.isFile()) {
+				files.add(file);
+			} else if (file.isDirectory()) {
+				List<Path> children = new ArrayList<>();
+				try (DirectoryStream<Path> paths = Files.newDirectoryStream(file.toPath())) {
+					for (Path path : paths)
+						if (Files.isRegularFile(path) && isImageFile(path))
+							children.add(path);
+				}
+				addSorted(children, files);
+			} else {
+				expandGlob(input, files);
+			}
+		}
+
+		// the same file may be given through different paths, such as x.jpg and ./x.jpg
+		Map<Path, File> unique = new LinkedHashMap<>();
+		for (File file : files)
+			unique.putIfAbsent(normalize(file), file);
+
+		return new ArrayList<>(unique.values());
+	}
+
+	private static void expandGlob(String glob, Set<File> files) throws IOException {
+		// the base directory is made of the segments before the first one with a wildcard
+		String normalized = glob.replace(File.separatorChar, '/');
+		int wildcard = indexOfWildcard(normalized);
+		if (wildcard < 0) {
+			System.err.println(glob + ": no such file or directory");
+			return;
+		}
+
+		int slash = normalized.lastIndexOf('/', wildcard);
+		Path base = Paths.get(slash < 0 ? "." : slash == 0 ? "/" : normalized.substring(0, slash));
+		String pattern = normalized.substring(slash + 1);
+
+		if (!Files.isDirectory(base))
+			return;
+
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+		int depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+
+		List<Path> matches = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(base, depth)) {
+			for (Iterator<Path> i = paths.iterator(); i.hasNext();) {
+				Path path = i.next();
+				if (Files.isRegularFile(path) && matcher.matches(base.relativize(path)))
+					matches.add(path);
+			}
+		}
+		addSorted(matches, files);
+	}
+
+	private static boolean isImageFile(Path path) {
+		String name = path.getFileName().toString();
+		String suffix = name.substring(name.lastIndexOf('.') + 1);
+
+		for (String imageSuffix : ImageIO.getReaderFileSuffixes())
+			if (imageSuffix.equalsIgnoreCase(suffix))
+				return true;
+		return false;
+	}
+
+	private static void addSorted(List<Path> paths, Set<File> files) {
+		Collections.sort(paths);
+		for (Path path : paths)
+			files.add(path.toFile());
+	}
+
+	private static int indexOfWildcard(String glob) {
+		for (int i = 0; i < glob.length(); ++i)
+			if ("*?[{".indexOf(glob.charAt(i)) >= 0)
+				return i;
+		return -1;
+	}
+
+	private static int parseNumber(String option, String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException(option + " expects a number, not " + value);
+		}
+	}
+
+	/**
+	 * Runs the tool with the arguments described in the class documentation
+	 * 
+	 * @param args command line arguments
+	 * @throws Exception thrown if the conversion is interrupted
+	 */
+	public static void main(String[] args) throws Exception {
+		// must be set before any AWT class is initialized
+		System.setProperty("java.awt.headless", "true");
+
+		BatchConverter batch = new BatchConverter();
+		List<String> inputs = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < args.length; ++i) {
+				switch (args[i]) {
+				case "-size":
+					String size = args[++i];
+					int x = size.indexOf('x');
+					if (x < 0)
+						throw new IllegalArgumentException("invalid size " + size + ", expected WxH such as 80x60");
+					batch.width = parseNumber("-size", size.substring(0, x));
+					batch.height = parseNumber("-size", size.substring(x + 1));
+					if (batch.width <= 0 || batch.height <= 0)
+						throw new IllegalArgumentException("raster size must be positive");
+					break;
+				case "-font":
+					batch.font = (AsciiFont) AsciiFont.class.getField(args[++i]).get(null);
+					break;
+				case "-threshold":
+					batch.threshold = parseNumber("-threshold", args[++i]);
+					if (batch.threshold < 0 || batch.threshold > 255)
+						throw new IllegalArgumentException("threshold must be between 0 and 255");
+					break;
+				case "-reduceColors":
+					batch.allColors = false;
+					break;
+				case "-threads":
+					batch.setThreads(parseNumber("-threads", args[++i]));
+					break;
+				case "-o":
+					batch.outputDirectory = new File(args[++i]);
+					break;
+				case "-rle":
+					batch.runLength = true;
+					break;
+				default:
+					if (args[i].startsWith("-"))
+						throw new IllegalArgumentException("unknown option " + args[i]);
+					inputs.add(args[i]);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException ex) {
+			inputs.clear();
+		} catch (NoSuchFieldException ex) {
+			System.err.println("unknown font " + ex.getMessage());
+			System.exit(2);
+		} catch (RuntimeException ex) {
+			System.err.println(ex.getMessage());
+			System.exit(2);
+		}
+
+		if (inputs.isEmpty()) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		if (batch.outputDirectory != null)
+			Files.createDirectories(batch.outputDirectory.toPath());
+
+		List<File> files = expand(inputs);
+
+		long start = System.nanoTime();
+		try {
+			batch.convert(files);
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.exit(2);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d images converted, %d failed in %.2f s (%.1f images/s, %.2f MB/s)%n",
+				batch.getConvertedCount(), batch.getFailedCount(), seconds,
+				batch.getConvertedCount() / seconds, batch.getBytesRead() / 1e6 / seconds);
+
+		System.exit(batch.getFailedCount() > 0 ? 1 : 0);
+	}
+}
@@ -1,7 +1,6 @@
 package imageeditor;
 
 import asciipanel.AsciiPainter;
-import asciipanel.AsciiRaster;
 import asciipanel.LinearBrush;
 
 /**
@@ -35,10 +34,7 @@ public class CharacterBrush extends LinearBrush {
 	 */
 	@Override
 	protected void dot(AsciiPainter painter, int x, int y) {
-		AsciiRaster surface = painter.getSurface();
-		surface.getChars()[x][y] = character;
-		surface.getForecolors()[x][y] = painter.getForegroundColor();
-		surface.getBackcolors()[x][y] = painter.getBackgroundColor();
+		painter.putCell(x, y, character);
 	}
 
 }
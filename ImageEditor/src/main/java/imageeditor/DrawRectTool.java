@@ -7,7 +7,6 @@ import javax.swing.event.MouseInputAdapter;
 
 import asciipanel.AsciiPainter;
 import asciipanel.AsciiPanel;
-import asciipanel.AsciiRaster;
 
 /**
  * Implements the MouseInputListener interface to
@@ -19,8 +18,8 @@ public class DrawRectTool extends MouseInputAdapter {
 	
 	private EditorStateModel editorState;
 
+	// paints the preview of the rectangle while the mouse is dragged
 	private AsciiPainter painter;
-	private AsciiRaster initialRaster;
 	private Point startPos;
 	private Point endPos;
 
@@ -45,15 +44,13 @@ public class DrawRectTool extends MouseInputAdapter {
 			startPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
 			endPos = startPos;
 
-			painter = editorState.beginUndoablePaint();
-
-			// save the starting point
-			initialRaster = painter.getSurface().clone();
+			// the rectangle is drawn into the preview until the mouse button is released
+			painter = editorState.beginPreviewPaint();
 
 			painter.brush(new CharacterBrush(editorState.getActiveCharacter()));
 			drawRect(painter, startPos, endPos);
 			
-			editorState.endPaint(painter);
+			editorState.endPreviewPaint(painter);
 		}
 	}
 
@@ -69,20 +66,17 @@ public class DrawRectTool extends MouseInputAdapter {
 			return;
 		
 		if (e.getButton() == MouseEvent.BUTTON1) {
-			Point charPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
-			
-			if (!charPos.equals(endPos)) {
-				endPos = charPos;
-
-				painter
-					.moveTo(0, 0)
-					.drawRaster(initialRaster, false, false);
-			    drawRect(painter, startPos, endPos);
-			    
-			    editorState.endPaint(painter);
-			}
-			
-			initialRaster = null;
+			endPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
+
+			// replace the preview with the final rectangle
+			editorState.clearPreview();
+			painter = null;
+
+			AsciiPainter result = editorState.beginUndoablePaint()
+				.brush(new CharacterBrush(editorState.getActiveCharacter()));
+			drawRect(result, startPos, endPos);
+
+			editorState.endPaint(result);
 		}
 	}
 
@@ -94,7 +88,7 @@ public class DrawRectTool extends MouseInputAdapter {
 	 */
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		if (initialRaster == null)
+		if (painter == null)
 			return;
 
 		Point charPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
@@ -102,12 +96,11 @@ public class DrawRectTool extends MouseInputAdapter {
 		if (!charPos.equals(endPos)) {
 			endPos = charPos;
 
-			painter
-				.moveTo(0, 0)
-				.drawRaster(initialRaster, false, false);
+			// only the cells of the previous and of the new preview are drawn again
+			editorState.clearPreview();
 		    drawRect(painter, startPos, endPos);
 		    
-		    editorState.endPaint(painter);
+		    editorState.endPreviewPaint(painter);
 		}
 	}
 
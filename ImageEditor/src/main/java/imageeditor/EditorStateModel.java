@@ -1,27 +1,38 @@
 package imageeditor;
 
 import java.awt.Color;
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Observable;
 
 import asciipanel.AsciiFont;
 import asciipanel.AsciiPainter;
 import asciipanel.AsciiPanelModel;
-import asciipanel.AsciiRaster;
+import asciipanel.RasterDelta;
 
 /**
  * This class models the state of the whole editor application.
  * It implements the observer pattern (extends the Observable class)
  * so that views can be notified of changes in the model properties.
  * 
+ * Undo and redo are implemented by recording, for each undoable paint
+ * operation, only the cells that have been modified (see RasterDelta).
+ * The history is limited both in number of operations and in the memory
+ * used by the recorded cells. An operation that modifies more cells than
+ * the whole history can hold is not recorded and cannot be undone; the
+ * operations before it stay in the history, and undoing them restores
+ * only the cells they modified.
+ * 
  * @author Lorenzo Bianchi
  *
  */
 public class EditorStateModel extends Observable {
 	
-	private static final int MAX_UNDO_STACK_SIZE = 20;
+	private static final int MAX_UNDO_STACK_SIZE = 5000;
+	
+	// memory available to the history, and the number of recorded cells that fit in it
+	private static final long MAX_UNDO_BYTES = 32L << 20;
+	private static final int MAX_UNDO_CELLS = (int) (MAX_UNDO_BYTES / RasterDelta.BYTES_PER_CELL);
 	
 	/**
 	 * Identifies a change of the undo stack
@@ -48,8 +59,19 @@ public class EditorStateModel extends Observable {
 	 */
 	public static final String ACTIVE_BACKGROUND = "activeBackground";
 	
-	private Deque<AsciiRaster> undoStack = new LinkedList<AsciiRaster>();
-	private Deque<AsciiRaster> redoStack = new LinkedList<AsciiRaster>();
+	/**
+	 * Identifies a change of the fileOperationRunning property
+	 */
+	public static final String FILE_OPERATION = "fileOperation";
+	
+	private Deque<RasterDelta> undoStack = new ArrayDeque<RasterDelta>();
+	private Deque<RasterDelta> redoStack = new ArrayDeque<RasterDelta>();
+	
+	// the painter that is recording into the delta at the top of the undo stack
+	private AsciiPainter recordingPainter;
+	
+	// total number of cells recorded by sealed deltas in both stacks
+	private long undoCells;
 
 	private ToolType activeTool = ToolType.PAINT;
 	
@@ -57,6 +79,8 @@ public class EditorStateModel extends Observable {
 	private Color activeForeground = Color.white;
 	private Color activeBackground = Color.black;
 	
+	private boolean fileOperationRunning = false;
+	
 	private AsciiPanelModel mainPanelModel = new AsciiPanelModel(AsciiFont.CP437_16x16);
 
 	/**
@@ -89,8 +113,14 @@ public class EditorStateModel extends Observable {
 	 * Clears the undo stack and restarts from the current state.
 	 */
 	public void resetUndoRedoStack() {
+		if (recordingPainter != null) {
+			recordingPainter.setDelta(null);
+			recordingPainter = null;
+		}
+
 		undoStack.clear();
 		redoStack.clear();
+		undoCells = 0;
 		
 		setChanged();
 		notifyObservers(UNDO_REDO_STACK);
@@ -100,11 +130,17 @@ public class EditorStateModel extends Observable {
 	 * Undoes the last edit action if possible, otherwise does nothing
 	 */
 	public void undo() {
-		if (!canUndo())
-			return;
-		
-		redoStack.push(mainPanelModel.getRaster());
-		mainPanelModel.setRaster(undoStack.pop());
+		endRecording();
+
+		if (canUndo()) {
+			RasterDelta delta = undoStack.pop();
+			
+			AsciiPainter painter = mainPanelModel.beginPaint();
+			delta.revert(painter);
+			mainPanelModel.endPaint(painter);
+			
+			redoStack.push(delta);
+		}
 		
 		setChanged();
 		notifyObservers(UNDO_REDO_STACK);
@@ -114,11 +150,17 @@ public class EditorStateModel extends Observable {
 	 * Redoes the last undid edit action if possible, otherwise does nothing.
 	 */
 	public void redo() {
-		if (!canRedo())
-			return;
-		
-		undoStack.push(mainPanelModel.getRaster());
-		mainPanelModel.setRaster(redoStack.pop());
+		endRecording();
+
+		if (canRedo()) {
+			RasterDelta delta = redoStack.pop();
+			
+			AsciiPainter painter = mainPanelModel.beginPaint();
+			delta.apply(painter);
+			mainPanelModel.endPaint(painter);
+			
+			undoStack.push(delta);
+		}
 		
 		setChanged();
 		notifyObservers(UNDO_REDO_STACK);
@@ -216,6 +258,31 @@ public class EditorStateModel extends Observable {
 		notifyObservers(ACTIVE_BACKGROUND);
 	}
 
+	/**
+	 * Tells whether a file operation, such as loading or saving the raster, is running
+	 * in background. File commands are disabled until it completes, so that operations
+	 * do not overlap.
+	 * 
+	 * @return true if a file operation is running
+	 */
+	public boolean isFileOperationRunning() {
+		return fileOperationRunning;
+	}
+
+	/**
+	 * Sets whether a file operation is running in background
+	 * 
+	 * @param fileOperationRunning true when the operation starts, false when it completes
+	 */
+	public void setFileOperationRunning(boolean fileOperationRunning) {
+		if (this.fileOperationRunning == fileOperationRunning)
+			return;
+
+		this.fileOperationRunning = fileOperationRunning;
+		setChanged();
+		notifyObservers(FILE_OPERATION);
+	}
+
 	/**
 	 * Gets the model of the main panel
 	 * 
@@ -243,26 +310,55 @@ public class EditorStateModel extends Observable {
 	 * that paints to the current raster. The painter is initialized with
 	 * active foreground and background colors.
 	 * 
+	 * The changes made with the painter are recorded into the new entry
+	 * until the next undoable paint operation, undo or redo.
+	 * 
 	 * @return an initialized instance of AsciiPainter
 	 */
 	public AsciiPainter beginUndoablePaint() {
-		// if max size would be exceeded, forget earlier actions
-		while (undoStack.size() >= MAX_UNDO_STACK_SIZE)
-			undoStack.removeLast();
+		endRecording();
 
 		// when a new action is performed, empty the redo stack
+		for (RasterDelta delta : redoStack)
+			undoCells -= delta.size();
 		redoStack.clear();
 
-		// push current raster into the undo stack
-		undoStack.push(mainPanelModel.getRaster());
+		// if max size would be exceeded, forget earlier actions
+		while (!undoStack.isEmpty() && (undoStack.size() >= MAX_UNDO_STACK_SIZE || undoCells > MAX_UNDO_CELLS))
+			undoCells -= undoStack.removeLast().size();
+
+		recordingPainter = beginPaint();
 
-		// create a copy of the current raster (the previous one is preserved for undoing)
-		mainPanelModel.setRaster(mainPanelModel.getRaster().clone());
+		RasterDelta delta = new RasterDelta(recordingPainter.getSurface(), MAX_UNDO_CELLS);
+		undoStack.push(delta);
+		recordingPainter.setDelta(delta);
 		
 		setChanged();
 		notifyObservers(UNDO_REDO_STACK);
 			
-		return beginPaint();
+		return recordingPainter;
+	}
+	
+	/**
+	 * Stops recording changes into the delta at the top of the undo stack.
+	 * If the recording painter did not change anything, the entry is removed.
+	 */
+	private void endRecording() {
+		if (recordingPainter == null)
+			return;
+
+		RasterDelta delta = recordingPainter.getDelta();
+		delta.seal(recordingPainter.getSurface());
+
+		recordingPainter.setDelta(null);
+		recordingPainter = null;
+
+		// an operation too large to be recorded is left out of the history
+		if (delta.isOverflowed() || delta.isEmpty()) {
+			undoStack.remove(delta);
+		} else {
+			undoCells += delta.size();
+		}
 	}
 	
 	/**
@@ -272,5 +368,42 @@ public class EditorStateModel extends Observable {
 	 */
 	public void endPaint(AsciiPainter painter) {
 		mainPanelModel.endPaint(painter);
+
+		// the operation is removed from the history as soon as it is too large to be undone
+		if (painter == recordingPainter && painter.getDelta().isOverflowed()) {
+			endRecording();
+			setChanged();
+			notifyObservers(UNDO_REDO_STACK);
+		}
+	}
+
+	/**
+	 * Obtains a painter that paints a preview into the overlay of the main panel
+	 * model, without modifying the raster. The painter is initialized with active
+	 * foreground and background colors.
+	 * 
+	 * @return an initialized instance of AsciiPainter
+	 */
+	public AsciiPainter beginPreviewPaint() {
+		return mainPanelModel.beginOverlayPaint()
+				.move(0, 0)
+				.foreground(activeForeground)
+				.background(activeBackground);
+	}
+
+	/**
+	 * Notifies main panel model of changes made to the preview with the specified painter
+	 * 
+	 * @param painter a painter obtained by calling beginPreviewPaint()
+	 */
+	public void endPreviewPaint(AsciiPainter painter) {
+		mainPanelModel.endOverlayPaint(painter);
+	}
+
+	/**
+	 * Erases the preview from the overlay of the main panel model
+	 */
+	public void clearPreview() {
+		mainPanelModel.clearOverlay();
 	}
 }
@@ -66,6 +66,7 @@ public class EditorView extends JFrame implements Observer {
 	private ButtonGroup toolMenuItemGroup = new ButtonGroup();
 	private EnumMap<ToolType, JRadioButtonMenuItem> toolMenuItems = new EnumMap<ToolType, JRadioButtonMenuItem>(ToolType.class);
 	
+	private JMenu fileMenu;
 	private JMenuItem editUndoMenuItem;
 	private JMenuItem editRedoMenuItem;
 	
@@ -103,6 +104,7 @@ public class EditorView extends JFrame implements Observer {
 			mainScrollPane.getViewport().revalidate();
 			
 			updateUndoRedo();
+			updateFileMenu();
 			updateActiveTool();
 			updateActiveCharacterDisplay();
 			
@@ -211,7 +213,7 @@ public class EditorView extends JFrame implements Observer {
 
 		JMenuBar menuBar = new JMenuBar();
 
-		JMenu fileMenu = new JMenu("File");
+		fileMenu = new JMenu("File");
 		JMenuItem fileNewMenuItem = new JMenuItem("New");
 		JMenuItem fileLoadMenuItem = new JMenuItem("Load");
 		JMenuItem fileSaveMenuItem = new JMenuItem("Save");
@@ -351,6 +353,13 @@ public class EditorView extends JFrame implements Observer {
 		editRedoMenuItem.setEnabled(editorState.canRedo());
 	}
 
+	/**
+	 * Disables the file commands while a file operation is running.
+	 */
+	private void updateFileMenu() {
+		fileMenu.setEnabled(!editorState.isFileOperationRunning());
+	}
+
 	/**
 	 * Attaches an instance of the active tool to the main panel.
 	 * A tool is an implementation of MouseInputListener that is
@@ -418,6 +427,9 @@ public class EditorView extends JFrame implements Observer {
 		case EditorStateModel.UNDO_REDO_STACK:
 			updateUndoRedo();
 			break;
+		case EditorStateModel.FILE_OPERATION:
+			updateFileMenu();
+			break;
 		case EditorStateModel.ACTIVE_TOOL:
 			updateActiveTool();
 			break;
@@ -21,7 +21,7 @@ public class EraserBrush extends LinearBrush {
 	 */
 	@Override
 	protected void dot(AsciiPainter painter, int x, int y) {
-		painter.getSurface().getChars()[x][y] = ' ';
+		painter.putChar(x, y, ' ');
 	}
 
 }
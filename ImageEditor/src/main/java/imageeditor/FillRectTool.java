@@ -7,7 +7,6 @@ import javax.swing.event.MouseInputAdapter;
 
 import asciipanel.AsciiPainter;
 import asciipanel.AsciiPanel;
-import asciipanel.AsciiRaster;
 
 /**
  * Implements the MouseInputListener interface to
@@ -19,8 +18,8 @@ public class FillRectTool extends MouseInputAdapter {
 	
 	private EditorStateModel editorState;
 
+	// paints the preview of the rectangle while the mouse is dragged
 	private AsciiPainter painter;
-	private AsciiRaster initialRaster;
 	private Point startPos;
 	private Point endPos;
 
@@ -45,14 +44,12 @@ public class FillRectTool extends MouseInputAdapter {
 			startPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
 			endPos = startPos;
 
-			painter = editorState.beginUndoablePaint();
-
-			// save the starting point
-			initialRaster = painter.getSurface().clone();
+			// the rectangle is drawn into the preview until the mouse button is released
+			painter = editorState.beginPreviewPaint();
 
 			fillRect(painter, startPos, endPos);
 			
-			editorState.endPaint(painter);
+			editorState.endPreviewPaint(painter);
 		}
 	}
 
@@ -68,20 +65,16 @@ public class FillRectTool extends MouseInputAdapter {
 			return;
 		
 		if (e.getButton() == MouseEvent.BUTTON1) {
-			Point charPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
-			
-			if (!charPos.equals(endPos)) {
-				endPos = charPos;
-
-				painter
-					.moveTo(0, 0)
-					.drawRaster(initialRaster, false, false);
-			    fillRect(painter, startPos, endPos);
-			    
-			    editorState.endPaint(painter);
-			}
-			
-			initialRaster = null;
+			endPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
+
+			// replace the preview with the final rectangle
+			editorState.clearPreview();
+			painter = null;
+
+			AsciiPainter result = editorState.beginUndoablePaint();
+			fillRect(result, startPos, endPos);
+
+			editorState.endPaint(result);
 		}
 	}
 
@@ -93,7 +86,7 @@ public class FillRectTool extends MouseInputAdapter {
 	 */
 	@Override
 	public void mouseDragged(MouseEvent e) {
-		if (initialRaster == null)
+		if (painter == null)
 			return;
 
 		Point charPos = ((AsciiPanel)e.getComponent()).pixelCoordToRasterCoord(e.getPoint());
@@ -101,12 +94,11 @@ public class FillRectTool extends MouseInputAdapter {
 		if (!charPos.equals(endPos)) {
 			endPos = charPos;
 
-			painter
-				.moveTo(0, 0)
-				.drawRaster(initialRaster, false, false);
+			// only the cells of the previous and of the new preview are drawn again
+			editorState.clearPreview();
 		    fillRect(painter, startPos, endPos);
 		    
-		    editorState.endPaint(painter);
+		    editorState.endPreviewPaint(painter);
 		}
 	}
 
@@ -29,7 +29,8 @@ public class FillTool extends MouseInputAdapter {
 	
 	/**
 	 * Called when the fill tool is active and the user clicks into the main AsciiPanel.
-	 * Implements the fill operation.
+	 * Implements the fill operation. When the shift key is held down, the filled area
+	 * is limited to cells with the same character and colors as the clicked cell.
 	 * 
 	 * @param e mouse event information
 	 */
@@ -42,7 +43,7 @@ public class FillTool extends MouseInputAdapter {
 
 		if (e.getButton() == MouseEvent.BUTTON1) { // if left button, fill
 			painter
-				.fill(editorState.getActiveCharacter());
+				.fill(editorState.getActiveCharacter(), e.isShiftDown());
 		}
 
 		editorState.endPaint(painter);
@@ -1,18 +1,20 @@
 package imageeditor;
 
-import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.awt.image.IndexColorModel;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import asciipanel.AsciiFont;
 import asciipanel.AsciiRaster;
+import asciipanel.IndexedAsciiRaster;
 
 /**
  * An helper class for converting pixel images to ASCII art
@@ -20,6 +22,9 @@ import asciipanel.AsciiRaster;
  * @author Lorenzo Bianchi
  */
 public class ImageConverter {
+	// bands of the image with fewer cells are converted by a single task
+	private static final int MIN_BAND_CELLS = 8192;
+
 	private AsciiFont font;
 	private int threshold;
 	private boolean allColors;
@@ -44,68 +49,167 @@ public class ImageConverter {
 	 * Then a character is associated to each pixel based on its brightness. The threshold
 	 * option limits the brightness to a maximum level to keep characters varied and interesting.
 	 * 
+	 * The scaled image is converted in bands of rows, which run in parallel on the common
+	 * fork/join pool. Each band writes only its own rows of the raster, without locking
+	 * for the rasters returned by AsciiRaster.create(). An IndexedAsciiRaster synchronizes
+	 * every write, so it is converted in a single band.
+	 * 
+	 * This is the same as calling scale() and then convertScaled().
+	 * 
 	 * @param raster the raster where the result is to be written
 	 * @param image  the image to convert
 	 */
 	public void convertTo(AsciiRaster raster, BufferedImage image) {
-		System.out.println("Resizing...");
-		
-		BufferedImage resized = new BufferedImage(raster.getWidth(), raster.getHeight(), image.getType());
+		convertTo(raster, image, null);
+	}
+
+	/**
+	 * Converts the given image to ASCII art like convertTo(AsciiRaster, BufferedImage),
+	 * reporting the number of rows of the raster converted so far to a monitor.
+	 * When the monitor is cancelled, the conversion stops at the next row and the
+	 * raster is left partially converted.
+	 * 
+	 * @param raster  the raster where the result is to be written
+	 * @param image   the image to convert
+	 * @param monitor the monitor of the conversion, or null
+	 */
+	public void convertTo(AsciiRaster raster, BufferedImage image, TaskMonitor monitor) {
+		if (raster.getWidth() == 0 || raster.getHeight() == 0)
+			return;
+
+		convertScaled(raster, scale(image, raster.getWidth(), raster.getHeight()), monitor);
+	}
+
+	/**
+	 * Scales an image to the specified size with bilinear interpolation. This is the
+	 * first step of convertTo(), where each pixel of the result corresponds to a cell.
+	 * 
+	 * @param image  the image to scale
+	 * @param width  the width of the result, in pixels
+	 * @param height the height of the result, in pixels
+	 * @return a new image of type TYPE_INT_ARGB
+	 */
+	public static BufferedImage scale(BufferedImage image, int width, int height) {
+		// the scaled image has a known layout, so that pixels can be read directly from its buffer
+		BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
 		Graphics2D g = resized.createGraphics();
 		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-		g.drawImage(image, 0, 0, raster.getWidth(), raster.getHeight(), 0, 0, image.getWidth(), image.getHeight(), null);
+		g.drawImage(image, 0, 0, width, height, 0, 0, image.getWidth(), image.getHeight(), null);
 		g.dispose();
-		
-		System.out.println("Converting...");
-
-		Map<Integer, Integer> index2numpixels = new HashMap<Integer, Integer>();
-		for (int i = 0; i < 256; i++) {
-			BufferedImage bi = font.getGlyph(i);
-			if (bi == null)
-				continue;
-			int tot = 0;
-			for (int x = 0; x < bi.getWidth(); x++) {
-				for (int y = 0; y < bi.getHeight(); y++) {
-					int c = bi.getRGB(x, y); //valore del pixel di colore nella posizione (x,y)
-					Color cc = new Color(c, false);
-					if (cc.getRed() > 0 || cc.getGreen() > 0 || cc.getBlue() > 0)
-						tot++; //numero di pixel nel glifo non neri
-				}
-			}
-			int key = (int) ((float) (tot) / (float) (bi.getWidth() * bi.getHeight()) * 255.f);
-			if (!index2numpixels.containsKey(key))
-				index2numpixels.put(key, i);
 
+		return resized;
+	}
+
+	/**
+	 * Converts an image already scaled to the size of the raster, as returned by
+	 * scale(), and writes the result to the raster. This is the second step of
+	 * convertTo(), which includes the color reduction when allColors is false.
+	 * 
+	 * @param raster  the raster where the result is to be written
+	 * @param resized an image of type TYPE_INT_ARGB with the same size of the raster
+	 */
+	public void convertScaled(AsciiRaster raster, BufferedImage resized) {
+		convertScaled(raster, resized, null);
+	}
+
+	/**
+	 * Converts an image already scaled to the size of the raster like
+	 * convertScaled(AsciiRaster, BufferedImage), reporting the number of rows
+	 * converted so far to a monitor.
+	 * 
+	 * @param raster  the raster where the result is to be written
+	 * @param resized an image of type TYPE_INT_ARGB with the same size of the raster
+	 * @param monitor the monitor of the conversion, or null
+	 */
+	public void convertScaled(AsciiRaster raster, BufferedImage resized, TaskMonitor monitor) {
+		int width = raster.getWidth();
+		int height = raster.getHeight();
+
+		if (resized.getType() != BufferedImage.TYPE_INT_ARGB || resized.getWidth() != width || resized.getHeight() != height)
+			throw new IllegalArgumentException("the image must be of type TYPE_INT_ARGB and have the size of the raster");
+
+		if (width == 0 || height == 0)
+			return;
+
+		// the color reduction has a high setup cost, so in that case the image is split in
+		// no more bands than the available threads; the bands of an indexed raster would
+		// only wait for each other's writes
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int minBandRows = raster instanceof IndexedAsciiRaster ? height
+				: allColors ? (MIN_BAND_CELLS + width - 1) / width
+				: (height + pool.getParallelism() - 1) / pool.getParallelism();
+
+		pool.invoke(new ConvertBand(raster, resized, monitor, new AtomicInteger(), minBandRows, 0, height));
+	}
+
+	/**
+	 * Converts a band of rows of the scaled image, splitting it in smaller
+	 * bands while it is large enough.
+	 */
+	private class ConvertBand extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final AsciiRaster raster;
+		private final BufferedImage resized;
+		private final TaskMonitor monitor;
+		private final AtomicInteger convertedRows;
+		private final int minBandRows;
+		private final int top;
+		private final int bottom;
+
+		ConvertBand(AsciiRaster raster, BufferedImage resized, TaskMonitor monitor, AtomicInteger convertedRows,
+				int minBandRows, int top, int bottom) {
+			this.raster = raster;
+			this.resized = resized;
+			this.monitor = monitor;
+			this.convertedRows = convertedRows;
+			this.minBandRows = minBandRows;
+			this.top = top;
+			this.bottom = bottom;
 		}
 
-		int[][] buffer = new int[resized.getWidth()][resized.getHeight()];
+		@Override
+		protected void compute() {
+			int width = resized.getWidth();
+			int rows = bottom - top;
 
-		for (int x = 0; x < resized.getWidth(); x++)
-			for (int y = 0; y < resized.getHeight(); y++) {
-				int c = resized.getRGB(x, y);
-				Color cc = new Color(c);
-				int ri = Math.max(Math.max(cc.getRed(), cc.getGreen()), cc.getBlue());
-				buffer[x][y] = Math.min(ri, threshold);
+			if (rows >= 2 * minBandRows) {
+				int middle = top + rows / 2;
+				invokeAll(new ConvertBand(raster, resized, monitor, convertedRows, minBandRows, top, middle),
+						new ConvertBand(raster, resized, monitor, convertedRows, minBandRows, middle, bottom));
+				return;
 			}
 
-		if (!allColors) {
-			BufferedImage ci = convert4(resized);
-			resized = ci;
-		}
+			if (monitor != null && monitor.isCancelled())
+				return;
+
+			int[] pixels = ((DataBufferInt) resized.getRaster().getDataBuffer()).getData();
+
+			// when colors are reduced, the foreground colors are taken from the band converted to 4 bits,
+			// whose first pixel corresponds to the first pixel of the band
+			int[] colors = pixels;
+			int colorsStart = 0;
+			if (!allColors) {
+				colors = convert4(resized.getSubimage(0, top, width, rows)).getRGB(0, 0, width, rows, null, 0, width);
+				colorsStart = top * width;
+			}
+
+			for (int y = top; y < bottom; y++) {
+				if (monitor != null && monitor.isCancelled())
+					return;
 
-		for (int x = 0; x < resized.getWidth(); x++) {
-			for (int y = 0; y < resized.getHeight(); y++) {
-				int k = 255 - buffer[x][y];
+				for (int x = 0, i = y * width; x < width; x++, i++) {
+					int c = pixels[i];
+					int ri = Math.max(Math.max((c >> 16) & 0xFF, (c >> 8) & 0xFF), c & 0xFF);
+					// the character code is the density level of the chosen glyph
+					int k = font.getGlyphDensity(font.getGlyphForDensity(255 - Math.min(ri, threshold)));
 
-				while (!index2numpixels.containsKey(k) && k > 0) {
-					k--;
+					raster.setFgRgb(x, y, colors[i - colorsStart] | 0xFF000000);
+					raster.setCharAt(x, y, (char) k);
 				}
-				
-				int c = resized.getRGB(x, y);
-				Color cc = new Color(c);
 
-				raster.getForecolors()[x][y] = cc;
-				raster.getChars()[x][y] = (char) k;
+				if (monitor != null)
+					monitor.progress(convertedRows.incrementAndGet(), resized.getHeight());
 			}
 		}
 	}
@@ -2,20 +2,51 @@ package imageeditor;
 
 import java.awt.Color;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 import asciipanel.AsciiPainter;
 import asciipanel.AsciiRaster;
+import asciipanel.AsciiRasterBinaryReader;
+import asciipanel.AsciiRasterBinaryWriter;
 import asciipanel.AsciiRasterReader;
 import asciipanel.AsciiRasterWriter;
 
@@ -28,10 +59,50 @@ import asciipanel.AsciiRasterWriter;
  */
 public class ImageEditor implements EditorListener {
 
+	/**
+	 * Extension of the files saved in text format, one line per cell, which
+	 * previous versions of the editor can read
+	 */
+	public static final String TEXT_FORMAT_EXTENSION = ".ascii";
+	
+	/**
+	 * Extension of the files saved in the run-length encoded text format, which
+	 * is much smaller than the text format but cannot be read by previous versions
+	 */
+	public static final String RUN_LENGTH_FORMAT_EXTENSION = ".asciirle";
+	
+	/**
+	 * Extension of the files saved in binary format, the fastest to load and save
+	 */
+	public static final String BINARY_FORMAT_EXTENSION = ".asciibin";
+	
+	/**
+	 * Binary files at least this large are mapped into memory instead of being read
+	 */
+	public static final long MAPPED_LOAD_THRESHOLD = 16L << 20;
+	
+	/**
+	 * Images are decoded with at least this many pixels per cell in each direction
+	 * when they are imported, fewer pixels are skipped by subsampling
+	 */
+	public static final int IMPORT_OVERSAMPLING = 4;
+	
+	// interval at which the progress monitor of a file operation is checked for cancellation
+	// even when the operation does not report progress, in milliseconds
+	private static final int CANCEL_POLL_INTERVAL = 250;
+	
+	/**
+	 * Directory of the autosave file, which can be changed with the system
+	 * property imageeditor.autosave.directory
+	 */
+	public static final File AUTOSAVE_DIRECTORY = new File(System.getProperty("imageeditor.autosave.directory",
+			new File(System.getProperty("java.io.tmpdir"), "imageeditor-" + System.getProperty("user.name")).getPath()));
+
 	private static ImageEditor instance = null;
 	
 	private EditorStateModel state;
 	private EditorView view;
+	private AutosaveService autosave;
 	
 	/**
 	 * Gets the unique instance of this class.
@@ -71,6 +142,32 @@ public class ImageEditor implements EditorListener {
 		
 		view = new EditorView(this, state);
 		view.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE); // exit the application when the view is closed
+		
+		// the interval can be changed with the system property imageeditor.autosave.interval, in seconds
+		int interval = Integer.getInteger("imageeditor.autosave.interval", AutosaveService.DEFAULT_INTERVAL / 1000);
+		autosave = new AutosaveService(state.getMainPanelModel(), AUTOSAVE_DIRECTORY, Math.max(interval, 1) * 1000);
+		autosave.setListener(new AutosaveListener() {
+			@Override
+			public void autosaveFailed(Exception ex) {
+				String message = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+				JOptionPane.showMessageDialog(view, "The image cannot be autosaved: " + message
+						+ "\nAutosave will be retried at the next interval.", "Autosave failed", JOptionPane.WARNING_MESSAGE);
+			}
+		});
+		
+		// the autosave file is deleted only when the editor is closed normally; shutdown()
+		// blocks the closing window until the autosave in progress completes
+		view.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				try {
+					autosave.shutdown();
+				} catch (IOException ex) {
+					JOptionPane.showMessageDialog(view, "Cannot delete the autosave file: " + ex.getMessage(),
+							"Autosave", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		});
 	}
 	
 	/**
@@ -81,10 +178,37 @@ public class ImageEditor implements EditorListener {
 	public void start(String[] args) {
 		initRaster(80, 60);
 		view.setVisible(true); // open the application window
+		
+		// the autosave files of other running editors stay locked and are not recovered
+		try {
+			autosave.lock();
+		} catch (IOException ex) {
+			JOptionPane.showMessageDialog(view, "Autosave is disabled: " + ex.getMessage(), "Autosave",
+					JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		
+		if (autosave.hasRecoveryFile()) {
+			int answer = JOptionPane.showConfirmDialog(view,
+					"The editor was not closed properly last time. Recover the autosaved image?",
+					"Recover", JOptionPane.YES_NO_OPTION);
+			
+			if (answer == JOptionPane.YES_OPTION) {
+				loadRaster(autosave.getFile());
+			} else {
+				try {
+					autosave.deleteFile();
+				} catch (IOException ex) {
+					JOptionPane.showMessageDialog(view, ex.getMessage(), "Recover", JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		}
+		
+		autosave.start();
 	}
 
 	private void initRaster(int width, int height) {
-		state.getMainPanelModel().setRaster(new AsciiRaster(width, height));
+		state.getMainPanelModel().setRaster(AsciiRaster.create(width, height));
 		
 		// initialize the image
 		AsciiPainter painter = state.beginPaint();
@@ -109,6 +233,207 @@ public class ImageEditor implements EditorListener {
 		new NewImageDialog(view, this, state).setVisible(true);
 	}
 	
+	/**
+	 * Loads an ascii raster from a file, either in binary or in text format.
+	 * Binary files larger than MAPPED_LOAD_THRESHOLD are mapped into memory
+	 * and the returned raster is read-only.
+	 * 
+	 * @param file the file to read
+	 * @return the raster, or null if the file format is invalid
+	 * @throws IOException thrown if an error occurs while reading the file
+	 */
+	public static AsciiRaster readRaster(File file) throws IOException {
+		return readRaster(file, null);
+	}
+	
+	/**
+	 * Loads an ascii raster from a file like readRaster(File), reporting the number
+	 * of bytes read so far to a monitor. When the monitor is cancelled, the reading
+	 * stops with an InterruptedIOException.
+	 * 
+	 * @param file    the file to read
+	 * @param monitor the monitor of the operation, or null
+	 * @return the raster, or null if the file format is invalid
+	 * @throws IOException thrown if an error occurs while reading the file
+	 */
+	public static AsciiRaster readRaster(File file, TaskMonitor monitor) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ReadableByteChannel input = monitor != null ? new MonitoredChannel(channel, monitor) : channel;
+
+			if (AsciiRasterBinaryReader.isBinaryFormat(channel)) {
+				// large files are mapped and decoded lazily, a copy in memory
+				// is made only when the raster is modified for the first time
+				if (channel.size() >= MAPPED_LOAD_THRESHOLD)
+					return AsciiRasterBinaryReader.map(channel);
+
+				return new AsciiRasterBinaryReader(input, channel.size()).read();
+			}
+
+			try (AsciiRasterReader r = new AsciiRasterReader(new BufferedReader(
+					new InputStreamReader(Channels.newInputStream(input), Charset.defaultCharset())))) {
+				return r.read();
+			}
+		}
+	}
+	
+	/**
+	 * Reads an image that is going to be converted to a raster of the given size.
+	 * Images much larger than the raster are decoded with source subsampling, so
+	 * that only about IMPORT_OVERSAMPLING pixels per cell are kept in each direction:
+	 * the memory and the time needed do not depend on the size of the image.
+	 * 
+	 * @param file   the image file to read
+	 * @param width  width of the raster, in cells
+	 * @param height height of the raster, in cells
+	 * @return the image, or null if its format is unknown
+	 * @throws IOException thrown if an error occurs while reading the file
+	 */
+	public static BufferedImage readImage(File file, int width, int height) throws IOException {
+		return readImage(file, width, height, null);
+	}
+	
+	/**
+	 * Reads an image like readImage(File, int, int), reporting the percentage of the
+	 * image decoded so far to a monitor. When the monitor is cancelled, the decoding
+	 * is aborted and the returned image is incomplete.
+	 * 
+	 * @param file    the image file to read
+	 * @param width   width of the raster, in cells
+	 * @param height  height of the raster, in cells
+	 * @param monitor the monitor of the operation, or null
+	 * @return the image, or null if its format is unknown
+	 * @throws IOException thrown if an error occurs while reading the file
+	 */
+	public static BufferedImage readImage(File file, int width, int height, final TaskMonitor monitor) throws IOException {
+		if (!file.canRead())
+			throw new IIOException("Can't read input file " + file);
+
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+			if (readers == null || !readers.hasNext())
+				return null;
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+
+				// the same step in both directions keeps the aspect ratio of the pixels
+				int step = Math.min(reader.getWidth(0) / (Math.max(width, 1) * IMPORT_OVERSAMPLING),
+						reader.getHeight(0) / (Math.max(height, 1) * IMPORT_OVERSAMPLING));
+
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (step > 1)
+					param.setSourceSubsampling(step, step, 0, 0);
+
+				if (monitor != null) {
+					reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+						@Override
+						public void imageProgress(ImageReader source, float percentageDone) {
+							if (monitor.isCancelled())
+								source.abort();
+							else
+								monitor.progress((long) percentageDone, 100);
+						}
+
+						@Override
+						public void sequenceStarted(ImageReader source, int minIndex) {
+						}
+
+						@Override
+						public void sequenceComplete(ImageReader source) {
+						}
+
+						@Override
+						public void imageStarted(ImageReader source, int imageIndex) {
+						}
+
+						@Override
+						public void imageComplete(ImageReader source) {
+						}
+
+						@Override
+						public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+						}
+
+						@Override
+						public void thumbnailProgress(ImageReader source, float percentageDone) {
+						}
+
+						@Override
+						public void thumbnailComplete(ImageReader source) {
+						}
+
+						@Override
+						public void readAborted(ImageReader source) {
+						}
+					});
+				}
+
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+	
+	/**
+	 * Saves an ascii raster to a file in the format given by the extension of its
+	 * name: text format for TEXT_FORMAT_EXTENSION, run-length encoded text format
+	 * for RUN_LENGTH_FORMAT_EXTENSION and binary format for BINARY_FORMAT_EXTENSION.
+	 * 
+	 * The data is written to a temporary file that then replaces the destination,
+	 * so that a raster mapped from the destination file can be saved over it.
+	 * 
+	 * @param file	 the file to write
+	 * @param raster the raster to save
+	 * @throws IOException              thrown if an error occurs while writing the file
+	 * @throws IllegalArgumentException thrown if the file has none of the extensions of the formats
+	 */
+	public static void writeRaster(File file, AsciiRaster raster) throws IOException {
+		if (!hasRasterExtension(file))
+			throw new IllegalArgumentException("unknown format of " + file.getName() + ", the extension must be "
+					+ TEXT_FORMAT_EXTENSION + ", " + RUN_LENGTH_FORMAT_EXTENSION + " or " + BINARY_FORMAT_EXTENSION);
+
+		Path target = file.getAbsoluteFile().toPath();
+		Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+
+		try {
+			boolean runLength = file.getName().endsWith(RUN_LENGTH_FORMAT_EXTENSION);
+
+			if (runLength || file.getName().endsWith(TEXT_FORMAT_EXTENSION)) {
+				try (AsciiRasterWriter w = new AsciiRasterWriter(Files.newBufferedWriter(temp, Charset.defaultCharset()), runLength)) {
+					w.write(raster);
+				}
+			} else {
+				try (AsciiRasterBinaryWriter w = new AsciiRasterBinaryWriter(FileChannel.open(temp,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+					w.write(raster);
+				}
+			}
+
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	/**
+	 * Checks whether the name of a file has the extension of one of the formats
+	 * that writeRaster() can write
+	 * 
+	 * @param file the file to check
+	 * @return true if the file can be written by writeRaster()
+	 */
+	public static boolean hasRasterExtension(File file) {
+		String name = file.getName();
+		return name.endsWith(TEXT_FORMAT_EXTENSION) || name.endsWith(RUN_LENGTH_FORMAT_EXTENSION)
+				|| name.endsWith(BINARY_FORMAT_EXTENSION);
+	}
+	
 	/**
 	 * Handles the load command from the main view.
 	 * Shows a file chooser and in the event of success, loads an ascii raster 
@@ -122,9 +447,24 @@ public class ImageEditor implements EditorListener {
 		int returnVal = fileChooser.showOpenDialog(view);
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
 
-			try (AsciiRasterReader r = new AsciiRasterReader(new BufferedReader(new FileReader(fileChooser.getSelectedFile())))) {
-				AsciiRaster raster = r.read();
+			loadRaster(fileChooser.getSelectedFile());
+		}
+	}
+	
+	/**
+	 * Loads an ascii raster from a file in background and shows it on the panel
+	 * 
+	 * @param file the file to read
+	 */
+	private void loadRaster(final File file) {
+		new FileWorker<AsciiRaster>("Load failed", "Loading " + file.getName()) {
+			@Override
+			protected AsciiRaster work() throws IOException {
+				return readRaster(file, this);
+			}
 
+			@Override
+			protected void succeeded(AsciiRaster raster) {
 				if (raster == null) {
 					JOptionPane.showMessageDialog(view, "Invalid file format", "Load failed", JOptionPane.ERROR_MESSAGE);
 					return;
@@ -132,29 +472,59 @@ public class ImageEditor implements EditorListener {
 
 				state.getMainPanelModel().setRaster(raster);
 				state.resetUndoRedoStack();
-			} catch (IOException ex) {
-				JOptionPane.showMessageDialog(view, ex.getMessage(), "Load failed", JOptionPane.ERROR_MESSAGE);
 			}
-		}
+		}.execute();
 	}
 
 	/**
 	 * Handles the save command from the main view.
 	 * Shows a file chooser and in the event of success it saves the ASCII raster to the selected file.
+	 * The format is given by the extension of the file; names without the extension
+	 * of a format get the one of the filter selected in the file chooser, by default
+	 * the text format.
 	 *
 	 * @param e event's information
 	 */
 	@Override
 	public void saveActionPerformed(ActionEvent e) {
 		JFileChooser fileChooser = new JFileChooser("resources/");
+		FileNameExtensionFilter textFilter = new FileNameExtensionFilter("Text (*" + TEXT_FORMAT_EXTENSION + ")",
+				TEXT_FORMAT_EXTENSION.substring(1));
+		fileChooser.addChoosableFileFilter(textFilter);
+		fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Run-length encoded text (*"
+				+ RUN_LENGTH_FORMAT_EXTENSION + ")", RUN_LENGTH_FORMAT_EXTENSION.substring(1)));
+		fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("Binary (*" + BINARY_FORMAT_EXTENSION + ")",
+				BINARY_FORMAT_EXTENSION.substring(1)));
+		fileChooser.setFileFilter(textFilter);
+
 		int returnVal = fileChooser.showSaveDialog(view);
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
 
-			try (AsciiRasterWriter w = new AsciiRasterWriter(new BufferedWriter(new FileWriter(fileChooser.getSelectedFile())))) {
-				w.write(state.getMainPanelModel().getRaster());
-			} catch (IOException ex) {
-				JOptionPane.showMessageDialog(view, ex.getMessage(), "Save failed", JOptionPane.ERROR_MESSAGE);
+			File selected = fileChooser.getSelectedFile();
+			if (!hasRasterExtension(selected)) {
+				FileFilter filter = fileChooser.getFileFilter();
+				String extension = filter instanceof FileNameExtensionFilter
+						? "." + ((FileNameExtensionFilter) filter).getExtensions()[0]
+						: TEXT_FORMAT_EXTENSION;
+				selected = new File(selected.getPath() + extension);
 			}
+
+			final File file = selected;
+
+			// the snapshot is not affected by the changes made while it is being written
+			final AsciiRaster raster = state.getMainPanelModel().getRaster().snapshot();
+
+			new FileWorker<Void>("Save failed", "Saving " + file.getName()) {
+				@Override
+				protected Void work() throws IOException {
+					writeRaster(file, raster);
+					return null;
+				}
+
+				@Override
+				protected void succeeded(Void result) {
+				}
+			}.execute();
 		}
 	}
 	
@@ -171,32 +541,49 @@ public class ImageEditor implements EditorListener {
 		int returnVal = importDialog.showImportDialog(view);
 		if (returnVal == JFileChooser.APPROVE_OPTION) {
 			
-			try {
-				// load image from file
-				BufferedImage image = ImageIO.read(importDialog.getSelectedFile());
-				if (image == null) {
-					JOptionPane.showMessageDialog(view, "Unknown image format", "Import failed", JOptionPane.ERROR_MESSAGE);
-					return;
+			final File file = importDialog.getSelectedFile();
+			final int width = state.getMainPanelModel().getRaster().getWidth();
+			final int height = state.getMainPanelModel().getRaster().getHeight();
+			final Color foreground = state.getActiveForeground();
+			final Color background = state.getActiveBackground();
+			
+			// helper class that converts the image to ascii art
+			final ImageConverter converter = new ImageConverter(
+					state.getMainPanelModel().getFont(),
+					importDialog.getThreshold(),
+					importDialog.getAllColors());
+			
+			new FileWorker<AsciiRaster>("Import failed", "Importing " + file.getName()) {
+				@Override
+				protected AsciiRaster work() throws IOException {
+					// load image from file, at a resolution suited to the raster
+					setProgressRange(0, 50);
+					BufferedImage image = readImage(file, width, height, this);
+					if (image == null || isCancelled())
+						return null;
+					
+					// perform conversion on a cleared raster of the same size
+					AsciiRaster result = AsciiRaster.create(width, height);
+					new AsciiPainter(result).foreground(foreground).background(background).clear();
+					
+					setProgressRange(50, 100);
+					converter.convertTo(result, image, this);
+					return result;
 				}
 				
-				// helper class that converts the image to ascii art
-				ImageConverter converter = new ImageConverter(
-						state.getMainPanelModel().getFont(),
-						importDialog.getThreshold(),
-						importDialog.getAllColors());
-				
-				// clear the raster
-				AsciiPainter painter = state.beginUndoablePaint();
-				painter.clear();
-				
-				// perform conversion
-				converter.convertTo(painter.getSurface(), image);
-
-				// update model
-				state.endPaint(painter);
-			} catch (IOException ex) {
-				JOptionPane.showMessageDialog(view, ex.getMessage(), "Import failed", JOptionPane.ERROR_MESSAGE);
-			}
+				@Override
+				protected void succeeded(AsciiRaster result) {
+					if (result == null) {
+						JOptionPane.showMessageDialog(view, "Unknown image format", "Import failed", JOptionPane.ERROR_MESSAGE);
+						return;
+					}
+					
+					// update model
+					AsciiPainter painter = state.beginUndoablePaint();
+					painter.moveTo(0, 0).drawRaster(result, false, false);
+					state.endPaint(painter);
+				}
+			}.execute();
 		}
 	}
 	
@@ -225,6 +612,10 @@ public class ImageEditor implements EditorListener {
 	 */
 	@Override
 	public void newImageApproved(int width, int height) {
+		// the dialog may have been opened before a file operation started
+		if (state.isFileOperationRunning())
+			return;
+
 		initRaster(width, height);
 	}
 	
@@ -268,4 +659,196 @@ public class ImageEditor implements EditorListener {
 	public static void main(String[] args) {
 		getInstance().start(args);
 	}
+	
+	/**
+	 * File operation that runs on a background thread, so that the editor keeps
+	 * responding to the user. Its progress is shown by a ProgressMonitor, which
+	 * appears only if the operation takes a while, and whose cancel button
+	 * cancels the operation. The operation is implemented by work(), and its result
+	 * is applied to the models on the event dispatch thread by succeeded(), unless
+	 * the operation was cancelled.
+	 * 
+	 * The file commands are disabled from the creation of the operation until work()
+	 * returns, so that file operations do not overlap. A cancelled operation is done
+	 * as soon as it is cancelled, but work() may still be running until it notices
+	 * the interruption, so the commands stay disabled until then.
+	 * 
+	 * @param <T> type of the result of the operation
+	 */
+	private abstract class FileWorker<T> extends SwingWorker<T, Void> implements TaskMonitor {
+		private final String failureTitle;
+		private final ProgressMonitor progressMonitor;
+		private final Timer cancelTimer;
+
+		// set by the first of work() starting and done() finding that it never will
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		// the progress reported to the monitor is mapped to this range of percentages
+		private volatile int progressStart = 0;
+		private volatile int progressEnd = 100;
+
+		/**
+		 * Initializes the operation and its progress monitor. Must be called on the
+		 * event dispatch thread.
+		 * 
+		 * @param failureTitle title of the message shown if the operation fails
+		 * @param note         description of the operation shown in the progress monitor
+		 */
+		FileWorker(String failureTitle, String note) {
+			this.failureTitle = failureTitle;
+			progressMonitor = new ProgressMonitor(view, note, null, 0, 100);
+
+			addPropertyChangeListener(new PropertyChangeListener() {
+				@Override
+				public void propertyChange(PropertyChangeEvent evt) {
+					if ("progress".equals(evt.getPropertyName()))
+						updateProgressMonitor();
+				}
+			});
+
+			// an operation blocked on a slow file does not report progress, but the
+			// monitor must still pop up and be cancelable
+			cancelTimer = new Timer(CANCEL_POLL_INTERVAL, new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					updateProgressMonitor();
+				}
+			});
+			cancelTimer.start();
+
+			state.setFileOperationRunning(true);
+		}
+
+		/**
+		 * Shows the current progress in the monitor and cancels the operation if the
+		 * cancel button of the monitor was pressed. The operation is interrupted, so
+		 * that it stops also while it waits for a file.
+		 */
+		private void updateProgressMonitor() {
+			if (isDone())
+				return;
+
+			progressMonitor.setProgress(getProgress());
+			if (progressMonitor.isCanceled())
+				cancel(true);
+		}
+
+		/**
+		 * Sets the range of percentages of the whole operation that corresponds to
+		 * the progress reported from now on, for operations made of several steps.
+		 * 
+		 * @param start percentage at the beginning of the step
+		 * @param end   percentage at the end of the step
+		 */
+		protected void setProgressRange(int start, int end) {
+			progressStart = start;
+			progressEnd = end;
+			setProgress(start);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void progress(long done, long total) {
+			setProgress(progressStart + (int) ((progressEnd - progressStart) * Math.min(done, total) / total));
+		}
+
+		/**
+		 * Performs the operation, on a background thread.
+		 * 
+		 * @return the result of the operation
+		 * @throws Exception thrown if the operation fails
+		 */
+		protected abstract T work() throws Exception;
+
+		/**
+		 * Applies the result of the operation, on the event dispatch thread.
+		 * 
+		 * @param result the value returned by work()
+		 */
+		protected abstract void succeeded(T result);
+
+		@Override
+		protected final T doInBackground() throws Exception {
+			// done() already enabled the commands if the operation was cancelled before starting
+			if (!started.compareAndSet(false, true))
+				return null;
+
+			try {
+				return work();
+			} finally {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						state.setFileOperationRunning(false);
+					}
+				});
+			}
+		}
+
+		@Override
+		protected void done() {
+			cancelTimer.stop();
+			progressMonitor.close();
+
+			// an operation cancelled before work() started never runs
+			if (started.compareAndSet(false, true))
+				state.setFileOperationRunning(false);
+
+			if (isCancelled())
+				return;
+
+			try {
+				succeeded(get());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+				JOptionPane.showMessageDialog(view, message, failureTitle, JOptionPane.ERROR_MESSAGE);
+			}
+		}
+	}
+	
+	/**
+	 * Channel that reports the bytes read from a file to a monitor, and that stops
+	 * the reading when the monitor is cancelled.
+	 */
+	private static class MonitoredChannel implements ReadableByteChannel {
+		private final FileChannel channel;
+		private final TaskMonitor monitor;
+		private final long size;
+		private long bytesRead = 0;
+
+		MonitoredChannel(FileChannel channel, TaskMonitor monitor) throws IOException {
+			this.channel = channel;
+			this.monitor = monitor;
+			this.size = Math.max(channel.size(), 1);
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (monitor.isCancelled())
+				throw new InterruptedIOException("cancelled");
+
+			int n = channel.read(dst);
+			if (n > 0) {
+				bytesRead += n;
+				monitor.progress(bytesRead, size);
+			}
+
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package imageeditor;
 
+import java.awt.Color;
 import java.awt.Point;
 import java.awt.event.MouseEvent;
 
@@ -42,9 +43,9 @@ public class PickTool extends MouseInputAdapter {
 		if (e.getButton() == MouseEvent.BUTTON1) {
 			AsciiRaster raster = editorState.getMainPanelModel().getRaster();
 
-			editorState.setActiveCharacter(raster.getChars()[px][py]);
-			editorState.setActiveForeground(raster.getForecolors()[px][py]);
-		    editorState.setActiveBackground(raster.getBackcolors()[px][py]);
+			editorState.setActiveCharacter(raster.getCharAt(px, py));
+			editorState.setActiveForeground(new Color(raster.getFgRgb(px, py), true));
+		    editorState.setActiveBackground(new Color(raster.getBgRgb(px, py), true));
 			editorState.setActiveTool(ToolType.PAINT);
 		}
 	}
@@ -0,0 +1,29 @@
+package imageeditor;
+
+/**
+ * Monitor of a long operation, such as loading a file or converting an image.
+ * The operation reports its progress to the monitor and asks it whether it
+ * should stop early.
+ * 
+ * The methods can be called from any thread, including several threads at the
+ * same time when the operation runs in parallel.
+ * 
+ * @author Lorenzo Bianchi
+ */
+public interface TaskMonitor {
+	/**
+	 * Reports the progress of the operation.
+	 * 
+	 * @param done  the amount of work done so far
+	 * @param total the total amount of work, greater than 0
+	 */
+	void progress(long done, long total);
+	
+	/**
+	 * Tells whether the operation has been cancelled. When it has, the operation
+	 * stops as soon as possible and its result is incomplete.
+	 * 
+	 * @return true if the operation should stop
+	 */
+	boolean isCancelled();
+}
@@ -0,0 +1,126 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the scanline flood fill of AsciiPainter against a plain recursive fill
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class AsciiPainterFillTest {
+
+	@Test
+	public void fillMatchesRecursiveFill() {
+		assertMatchesRecursiveFill(false);
+	}
+
+	@Test
+	public void fillMatchingColorsMatchesRecursiveFill() {
+		assertMatchesRecursiveFill(true);
+	}
+
+	@Test
+	public void fillStartsFromNearestCellWhenPenIsOutside() {
+		AsciiRaster raster = new AsciiRaster(5, 5);
+		raster.fillRect(0, 0, 5, 5, 'a', color(0), color(0));
+		raster.fillRect(2, 0, 3, 5, 'b', color(0), color(0));
+
+		new AsciiPainter(raster).moveTo(10, -3).fill('c');
+
+		assertEquals('c', raster.getCharAt(4, 0));
+		assertEquals('c', raster.getCharAt(3, 4));
+		assertEquals('b', raster.getCharAt(2, 0));
+		assertEquals('a', raster.getCharAt(1, 0));
+	}
+
+	@Test
+	public void fillOfLargeAreaDoesNotOverflowStack() {
+		AsciiRaster raster = new AsciiRaster(1000, 1000);
+		AsciiRaster expected = new AsciiRaster(1000, 1000);
+
+		// walls with alternating gaps at the top and at the bottom force a serpentine path,
+		// which is far deeper than the stack would allow to a recursive fill
+		for (int x = 1; x < 1000; x += 2) {
+			int top = (x / 2) % 2 == 0 ? 0 : 1;
+			raster.fillRect(x, top, x + 1, top + 999, '#', color(1), color(1));
+		}
+
+		for (int y = 0; y < 1000; ++y)
+			for (int x = 0; x < 1000; ++x) {
+				if (raster.getCharAt(x, y) == '#')
+					expected.setCell(x, y, '#', color(1), color(1));
+				else
+					expected.setCell(x, y, '.', 0xFFFFFFFF, 0xFF000000);
+			}
+
+		new AsciiPainter(raster).foreground(Color.WHITE).background(Color.BLACK).fill('.');
+
+		assertSameCells(expected, raster);
+	}
+
+	private static void assertMatchesRecursiveFill(boolean matchColors) {
+		Random random = new Random(matchColors ? 1 : 2);
+
+		for (int round = 0; round < 2000; ++round) {
+			int width = 1 + random.nextInt(12);
+			int height = 1 + random.nextInt(9);
+			AsciiRaster raster = new AsciiRaster(width, height);
+
+			// few distinct cells, so that areas are large and the fill often meets cells
+			// that already have the fill character and colors
+			for (int y = 0; y < height; ++y)
+				for (int x = 0; x < width; ++x)
+					raster.setCell(x, y, (char) ('a' + random.nextInt(2)), color(random.nextInt(2)), color(random.nextInt(2)));
+
+			AsciiRaster expected = raster.clone();
+			char character = (char) ('a' + random.nextInt(3));
+			int fg = color(random.nextInt(2));
+			int bg = color(random.nextInt(2));
+			int penX = random.nextInt(width + 2) - 1;
+			int penY = random.nextInt(height + 2) - 1;
+			int startX = Math.max(0, Math.min(penX, width - 1));
+			int startY = Math.max(0, Math.min(penY, height - 1));
+
+			recursiveFill(expected, startX, startY, character, fg, bg, expected.getCharAt(startX, startY),
+					expected.getFgRgb(startX, startY), expected.getBgRgb(startX, startY), matchColors);
+
+			new AsciiPainter(raster).moveTo(penX, penY).foreground(new Color(fg, true)).background(new Color(bg, true))
+					.fill(character, matchColors);
+
+			assertSameCells(expected, raster);
+		}
+	}
+
+	/**
+	 * The recursive fill replaced by the scanline fill: a cell is filled when it matches the
+	 * starting cell and does not already have the fill character and colors
+	 */
+	private static void recursiveFill(AsciiRaster raster, int x, int y, char character, int fg, int bg,
+			char oldChar, int oldFg, int oldBg, boolean matchColors) {
+		if (x < 0 || y < 0 || x >= raster.getWidth() || y >= raster.getHeight())
+			return;
+
+		char ch = raster.getCharAt(x, y);
+		int cellFg = raster.getFgRgb(x, y);
+		int cellBg = raster.getBgRgb(x, y);
+
+		if (ch != oldChar || (matchColors && (cellFg != oldFg || cellBg != oldBg)))
+			return;
+		if (ch == character && cellFg == fg && cellBg == bg)
+			return;
+
+		raster.setCell(x, y, character, fg, bg);
+
+		recursiveFill(raster, x + 1, y, character, fg, bg, oldChar, oldFg, oldBg, matchColors);
+		recursiveFill(raster, x - 1, y, character, fg, bg, oldChar, oldFg, oldBg, matchColors);
+		recursiveFill(raster, x, y - 1, character, fg, bg, oldChar, oldFg, oldBg, matchColors);
+		recursiveFill(raster, x, y + 1, character, fg, bg, oldChar, oldFg, oldBg, matchColors);
+	}
+}
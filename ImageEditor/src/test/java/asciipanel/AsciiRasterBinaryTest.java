@@ -0,0 +1,192 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the binary format written by AsciiRasterBinaryWriter and read by AsciiRasterBinaryReader
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class AsciiRasterBinaryTest {
+
+	// offset of the number of colors in the palette
+	private static final int PALETTE_SIZE_OFFSET = AsciiRasterBinaryReader.HEADER_SIZE;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTripWithOneByteIndices() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(40, 30), new Random(1), 200);
+
+		assertIndexSize(1, roundTrip(raster));
+	}
+
+	@Test
+	public void roundTripWithTwoByteIndices() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(120, 100), new Random(2), 5000);
+
+		assertIndexSize(2, roundTrip(raster));
+	}
+
+	@Test
+	public void roundTripWithFourByteIndices() throws IOException {
+		AsciiRaster raster = new AsciiRaster(300, 250);
+
+		// every cell has its own foreground color
+		for (int y = 0; y < raster.getHeight(); ++y)
+			for (int x = 0; x < raster.getWidth(); ++x)
+				raster.setCell(x, y, (char) (x & 0xFF), color(y * raster.getWidth() + x), color(x));
+
+		assertIndexSize(4, roundTrip(raster));
+	}
+
+	@Test
+	public void roundTripOfEmptyRaster() throws IOException {
+		roundTrip(new AsciiRaster(0, 0));
+	}
+
+	@Test
+	public void roundTripThroughFile() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(50, 20), new Random(3), 300);
+		File file = folder.newFile();
+
+		try (AsciiRasterBinaryWriter w = new AsciiRasterBinaryWriter(FileChannel.open(file.toPath(), StandardOpenOption.WRITE))) {
+			w.write(raster);
+		}
+
+		try (AsciiRasterBinaryReader r = new AsciiRasterBinaryReader(FileChannel.open(file.toPath()))) {
+			assertSameCells(raster, r.read());
+		}
+	}
+
+	@Test
+	public void wrongMagicIsRejected() throws IOException {
+		byte[] bytes = write(new AsciiRaster(4, 4));
+		bytes[0] ^= 1;
+
+		assertNull(read(bytes));
+	}
+
+	@Test
+	public void unknownVersionIsRejected() throws IOException {
+		byte[] bytes = write(new AsciiRaster(4, 4));
+		ByteBuffer.wrap(bytes).putShort(4, (short) (AsciiRasterBinaryReader.VERSION + 1));
+
+		assertNull(read(bytes));
+	}
+
+	@Test
+	public void negativeSizeIsRejected() throws IOException {
+		byte[] bytes = write(new AsciiRaster(4, 4));
+		ByteBuffer.wrap(bytes).putInt(8, -4);
+
+		assertNull(read(bytes));
+	}
+
+	@Test
+	public void oversizedPaletteIsRejected() throws IOException {
+		byte[] bytes = write(new AsciiRaster(4, 4));
+		ByteBuffer.wrap(bytes).putInt(PALETTE_SIZE_OFFSET, Integer.MAX_VALUE);
+
+		assertNull(read(bytes));
+	}
+
+	@Test
+	public void invalidIndexIsRejected() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(8, 8), new Random(4), 10);
+		byte[] bytes = write(raster);
+
+		// foreground index of the last cell
+		bytes[bytes.length - 2] = (byte) 0xFF;
+
+		assertNull(read(bytes));
+	}
+
+	@Test
+	public void truncatedHeaderIsRejected() throws IOException {
+		byte[] bytes = write(new AsciiRaster(4, 4));
+
+		assertNull(read(Arrays.copyOf(bytes, AsciiRasterBinaryReader.HEADER_SIZE - 1)));
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedCellsAreRejected() throws IOException {
+		byte[] bytes = write(fillRandom(new AsciiRaster(8, 8), new Random(5), 10));
+
+		read(Arrays.copyOf(bytes, bytes.length - 1));
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedFileIsRejected() throws IOException {
+		byte[] bytes = write(fillRandom(new AsciiRaster(8, 8), new Random(6), 10));
+		File file = folder.newFile();
+
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+
+		try (AsciiRasterBinaryReader r = new AsciiRasterBinaryReader(FileChannel.open(file.toPath()))) {
+			r.read();
+		}
+	}
+
+	/**
+	 * Writes and reads back a raster, checking that the cells are the same
+	 * 
+	 * @return the bytes written
+	 */
+	private static byte[] roundTrip(AsciiRaster raster) throws IOException {
+		byte[] bytes = write(raster);
+
+		assertSameCells(raster, read(bytes));
+
+		return bytes;
+	}
+
+	/**
+	 * Checks the size of the indices from the size of the palette and of the file
+	 */
+	private static void assertIndexSize(int indexSize, byte[] bytes) {
+		int paletteSize = ByteBuffer.wrap(bytes).getInt(PALETTE_SIZE_OFFSET);
+		long cells = (long) ByteBuffer.wrap(bytes).getInt(8) * ByteBuffer.wrap(bytes).getInt(12);
+
+		assertEquals(indexSize, AsciiRasterBinaryReader.indexSize(paletteSize));
+		assertEquals(PALETTE_SIZE_OFFSET + 4 + 4L * paletteSize + cells * (1 + 2 * indexSize), bytes.length);
+	}
+
+	static byte[] write(AsciiRaster raster) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try (AsciiRasterBinaryWriter w = new AsciiRasterBinaryWriter(Channels.newChannel(out))) {
+			w.write(raster);
+		}
+
+		return out.toByteArray();
+	}
+
+	static AsciiRaster read(byte[] bytes) throws IOException {
+		try (AsciiRasterBinaryReader r = new AsciiRasterBinaryReader(Channels.newChannel(new ByteArrayInputStream(bytes)))) {
+			return r.read();
+		}
+	}
+}
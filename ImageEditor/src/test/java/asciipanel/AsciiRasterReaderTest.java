@@ -0,0 +1,172 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.editRandom;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the text formats, plain and run-length encoded, written by AsciiRasterWriter
+ * and read by AsciiRasterReader
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class AsciiRasterReaderTest {
+
+	@Test
+	public void roundTrip() throws IOException {
+		// the text is much longer than the buffer of the reader
+		AsciiRaster raster = fillRandom(new AsciiRaster(200, 150), new Random(1), 1000);
+		raster.setCell(0, 0, '\u00e9', AsciiRaster.DEFAULT_RGB, 0xFFFFFFFF);
+
+		assertSameCells(raster, read(write(raster, false)));
+	}
+
+	@Test
+	public void roundTripOfEmptyRaster() throws IOException {
+		assertSameCells(new AsciiRaster(0, 0), read(write(new AsciiRaster(0, 0), false)));
+		assertSameCells(new AsciiRaster(3, 0), read(write(new AsciiRaster(3, 0), false)));
+	}
+
+	@Test
+	public void cellsAreReadByColumn() throws IOException {
+		AsciiRaster raster = read("2\n2\n65\t1\t2\n66\t3\t4\n67\t5\t6\n68\t7\t8\n");
+
+		assertEquals('A', raster.getCharAt(0, 0));
+		assertEquals('B', raster.getCharAt(0, 1));
+		assertEquals('C', raster.getCharAt(1, 0));
+		assertEquals('D', raster.getCharAt(1, 1));
+		assertEquals(0xFF000005, raster.getFgRgb(1, 0));
+		assertEquals(0xFF000008, raster.getBgRgb(1, 1));
+	}
+
+	@Test
+	public void anyWhitespaceSeparatesNumbers() throws IOException {
+		AsciiRaster raster = read("  1\r\n2\r\n65 -1\t\t255\r\n\r\n+66 0 -16777216");
+
+		assertEquals('A', raster.getCharAt(0, 0));
+		assertEquals(0xFFFFFFFF, raster.getFgRgb(0, 0));
+		assertEquals(0xFF0000FF, raster.getBgRgb(0, 0));
+		assertEquals('B', raster.getCharAt(0, 1));
+		assertEquals(0xFF000000, raster.getFgRgb(0, 1));
+	}
+
+	@Test
+	public void truncatedFileLeavesCellsEmpty() throws IOException {
+		AsciiRaster raster = read("2\n2\n65\t1\t2\n");
+		AsciiRaster expected = new AsciiRaster(2, 2);
+
+		expected.setCell(0, 0, 'A', 0xFF000001, 0xFF000002);
+
+		assertSameCells(expected, raster);
+	}
+
+	@Test
+	public void invalidFilesAreRejected() throws IOException {
+		assertNull(read(""));
+		assertNull(read("2\n"));
+		assertNull(read("-1\n2\n"));
+		assertNull(read("1\nx\n"));
+		assertNull(read("1\n1\n65\t1x\t2\n"));
+		assertNull(read("1\n1\n65\t1\n"));
+		assertNull(read("1\n1\n65\t1\t4294967296\n"));
+	}
+
+	@Test
+	public void runLengthRoundTrip() throws IOException {
+		Random random = new Random(2);
+		AsciiRaster raster = new AsciiRaster(300, 200);
+
+		for (int i = 0; i < 50; ++i)
+			editRandom(random, 5, raster);
+
+		String text = write(raster, true);
+
+		assertTrue(text.startsWith(AsciiRasterReader.RUN_LENGTH_MARKER + "\n"));
+		assertSameCells(raster, read(text));
+	}
+
+	@Test
+	public void runsSpanRows() throws IOException {
+		AsciiRaster raster = new AsciiRaster(10, 5);
+		raster.fillRect(0, 0, 10, 5, 'a', color(1), color(2));
+		raster.fillRect(0, 2, 10, 4, 'b', color(1), color(2));
+
+		String text = write(raster, true);
+
+		// the marker, the size and three runs
+		assertEquals(6, text.split("\n").length);
+		assertSameCells(raster, read(text));
+	}
+
+	@Test
+	public void noisyRasterIsWrittenInPlainFormat() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(50, 40), new Random(3), 1000);
+		String text = write(raster, true);
+
+		assertFalse(text.startsWith(AsciiRasterReader.RUN_LENGTH_MARKER));
+		assertEquals(write(raster, false), text);
+		assertSameCells(raster, read(text));
+	}
+
+	@Test
+	public void uniformHugeRasterIsSmall() throws IOException {
+		AsciiRaster raster = read("RLE\n4096\n2048\n8388608\t32\t-1\t-16777216\n");
+
+		assertTrue(raster instanceof TiledAsciiRaster);
+		assertEquals(' ', raster.getCharAt(4095, 2047));
+		assertEquals(0xFFFFFFFF, raster.getFgRgb(0, 0));
+		assertEquals(0, ((TiledAsciiRaster) raster).getAllocatedTileCount());
+	}
+
+	@Test
+	public void truncatedRunsLeaveCellsEmpty() throws IOException {
+		AsciiRaster raster = read("RLE\n2\n2\n3\t65\t1\t2\n");
+		AsciiRaster expected = new AsciiRaster(2, 2);
+
+		expected.fillRect(0, 0, 2, 1, 'A', 0xFF000001, 0xFF000002);
+		expected.setCell(0, 1, 'A', 0xFF000001, 0xFF000002);
+
+		assertSameCells(expected, raster);
+	}
+
+	@Test
+	public void invalidRunsAreRejected() throws IOException {
+		assertNull(read("RLE\n2\n2\n0\t65\t1\t2\n"));
+		assertNull(read("RLE\n2\n2\n-1\t65\t1\t2\n"));
+		assertNull(read("RLE\n2\n2\n5\t65\t1\t2\n"));
+		assertNull(read("RLE\n2\n2\n3\t65\t1\t2\n2\t65\t1\t2\n"));
+		assertNull(read("RLE\n2\n2\n4\t65\t1\n"));
+		assertNull(read("RLX\n2\n2\n"));
+		assertNull(read("RLEX\n2\n2\n"));
+	}
+
+	static String write(AsciiRaster raster, boolean runLength) throws IOException {
+		StringWriter out = new StringWriter();
+
+		try (AsciiRasterWriter w = new AsciiRasterWriter(new BufferedWriter(out), runLength)) {
+			w.write(raster);
+		}
+
+		return out.toString();
+	}
+
+	static AsciiRaster read(String text) throws IOException {
+		try (AsciiRasterReader r = new AsciiRasterReader(new BufferedReader(new StringReader(text)))) {
+			return r.read();
+		}
+	}
+}
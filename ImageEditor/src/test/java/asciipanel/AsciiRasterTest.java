@@ -0,0 +1,94 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the cells of AsciiRaster and of the getters kept for compatibility
+ * 
+ * @author Lorenzo Bianchi
+ */
+@SuppressWarnings("deprecation")
+public class AsciiRasterTest {
+
+	@Test
+	public void newRasterHasDefaultCells() {
+		AsciiRaster raster = new AsciiRaster(3, 2);
+
+		for (int y = 0; y < 2; ++y)
+			for (int x = 0; x < 3; ++x) {
+				assertEquals(0, raster.getCharAt(x, y));
+				assertEquals(AsciiRaster.DEFAULT_RGB, raster.getFgRgb(x, y));
+				assertEquals(AsciiRaster.DEFAULT_RGB, raster.getBgRgb(x, y));
+			}
+	}
+
+	@Test
+	public void fillRectWritesOnlyTheRectangle() {
+		AsciiRaster raster = new AsciiRaster(5, 4);
+
+		raster.fillRect(1, 1, 4, 3, '#', color(1), color(2));
+
+		for (int y = 0; y < 4; ++y)
+			for (int x = 0; x < 5; ++x) {
+				boolean inside = x >= 1 && x < 4 && y >= 1 && y < 3;
+
+				assertEquals(inside ? '#' : 0, raster.getCharAt(x, y));
+				assertEquals(inside ? color(1) : AsciiRaster.DEFAULT_RGB, raster.getFgRgb(x, y));
+				assertEquals(inside ? color(2) : AsciiRaster.DEFAULT_RGB, raster.getBgRgb(x, y));
+			}
+	}
+
+	@Test
+	public void cloneIsIndependent() {
+		AsciiRaster raster = fillRandom(new AsciiRaster(7, 5), new Random(1), 10);
+		AsciiRaster copy = raster.clone();
+
+		assertSameCells(raster, copy);
+
+		char character = raster.getCharAt(3, 2);
+		int fgRgb = raster.getFgRgb(3, 2);
+
+		copy.setCell(3, 2, '\u00e9', color(20), color(21));
+		assertEquals('\u00e9', copy.getCharAt(3, 2));
+		assertEquals(character, raster.getCharAt(3, 2));
+		assertEquals(fgRgb, raster.getFgRgb(3, 2));
+	}
+
+	@Test
+	public void deprecatedGettersMatchCells() {
+		AsciiRaster raster = fillRandom(new AsciiRaster(6, 4), new Random(2), 10);
+		char[][] chars = raster.getChars();
+		Color[][] forecolors = raster.getForecolors();
+		Color[][] backcolors = raster.getBackcolors();
+
+		assertEquals(6, chars.length);
+		assertEquals(4, chars[0].length);
+
+		for (int y = 0; y < 4; ++y)
+			for (int x = 0; x < 6; ++x) {
+				assertEquals(raster.getCharAt(x, y), chars[x][y]);
+				assertEquals(raster.getFgRgb(x, y), forecolors[x][y].getRGB());
+				assertEquals(raster.getBgRgb(x, y), backcolors[x][y].getRGB());
+			}
+	}
+
+	@Test
+	public void deprecatedGettersReturnCopies() {
+		AsciiRaster raster = fillRandom(new AsciiRaster(4, 3), new Random(3), 10);
+		AsciiRaster expected = raster.clone();
+
+		raster.getChars()[1][2] = '!';
+		raster.getForecolors()[1][2] = Color.RED;
+		raster.getBackcolors()[1][2] = Color.BLUE;
+
+		assertSameCells(expected, raster);
+	}
+}
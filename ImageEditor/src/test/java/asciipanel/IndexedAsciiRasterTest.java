@@ -0,0 +1,171 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.editRandom;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of IndexedAsciiRaster against the flat AsciiRaster
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class IndexedAsciiRasterTest {
+
+	@Test
+	public void randomEditsMatchFlatRaster() {
+		Random random = new Random(1);
+
+		for (int round = 0; round < 100; ++round) {
+			int width = 1 + random.nextInt(150);
+			int height = 1 + random.nextInt(150);
+			AsciiRaster flat = new AsciiRaster(width, height);
+			IndexedAsciiRaster indexed = new IndexedAsciiRaster(width, height);
+			List<AsciiRaster> expectedCopies = new ArrayList<>();
+			List<AsciiRaster> copies = new ArrayList<>();
+
+			for (int i = 0; i < 100; ++i) {
+				editRandom(random, 50, flat, indexed);
+
+				// copies share the bands and the palette, and must not see later edits
+				if (random.nextInt(20) == 0) {
+					expectedCopies.add(flat.clone());
+					copies.add(random.nextBoolean() ? indexed.clone() : indexed.snapshot());
+				}
+			}
+
+			assertSameCells(flat, indexed);
+			assertTrue(indexed.getPaletteSize() > 0);
+
+			for (int i = 0; i < copies.size(); ++i)
+				assertSameCells(expectedCopies.get(i), copies.get(i));
+		}
+	}
+
+	@Test
+	public void unusedColorsAreRemovedFromFullPalette() {
+		AsciiRaster flat = new AsciiRaster(200, 200);
+		IndexedAsciiRaster indexed = new IndexedAsciiRaster(200, 200);
+
+		// each pass replaces all the colors, and two passes do not fit the palette
+		for (int pass = 0; pass < 4; ++pass)
+			for (int y = 0; y < 200; ++y)
+				for (int x = 0; x < 200; ++x) {
+					int fgRgb = color(pass * 40000 + y * 200 + x);
+
+					flat.setCell(x, y, 'a', fgRgb, color(0));
+					indexed.setCell(x, y, 'a', fgRgb, color(0));
+				}
+
+		assertSameCells(flat, indexed);
+		assertTrue(indexed.getPaletteSize() > 0);
+		assertTrue(indexed.getPaletteSize() <= IndexedAsciiRaster.MAX_PALETTE_SIZE);
+	}
+
+	@Test
+	public void rasterStoresColorsDirectlyWhenPaletteOverflows() {
+		AsciiRaster flat = new AsciiRaster(300, 300);
+		IndexedAsciiRaster indexed = new IndexedAsciiRaster(300, 300);
+		AsciiRaster expectedSnapshot = null;
+		AsciiRaster snapshot = null;
+
+		for (int y = 0; y < 300; ++y) {
+			// a snapshot shares the palette from before the switch
+			if (y == 150) {
+				expectedSnapshot = flat.clone();
+				snapshot = indexed.snapshot();
+			}
+
+			for (int x = 0; x < 300; ++x) {
+				flat.setCell(x, y, 'a', color(y * 300 + x), color(x));
+				indexed.setCell(x, y, 'a', color(y * 300 + x), color(x));
+			}
+		}
+
+		assertEquals(0, indexed.getPaletteSize());
+		assertSameCells(flat, indexed);
+		assertSameCells(expectedSnapshot, snapshot);
+
+		// the raster keeps working after the switch
+		Random random = new Random(2);
+		for (int i = 0; i < 100; ++i)
+			editRandom(random, 10, flat, indexed);
+
+		assertSameCells(flat, indexed);
+	}
+
+	@Test
+	public void cloneOfSnapshotIsModifiable() {
+		IndexedAsciiRaster raster = fillRandom(new IndexedAsciiRaster(60, 90), new Random(3), 20);
+		AsciiRaster expected = raster.clone();
+		AsciiRaster snapshot = raster.snapshot();
+		AsciiRaster copy = snapshot.clone();
+
+		assertTrue(snapshot.isReadOnly());
+		assertFalse(copy.isReadOnly());
+
+		copy.fillRect(0, 0, 60, 90, '#', color(100), color(101));
+		raster.setCell(0, 0, '#', color(102), color(103));
+
+		assertSameCells(expected, snapshot);
+		assertEquals(color(100), copy.getFgRgb(0, 0));
+	}
+
+	@Test
+	public void indexedRastersAreCreatedOnlyExplicitly() throws IOException {
+		assertFalse(AsciiRaster.create(100, 100) instanceof IndexedAsciiRaster);
+
+		// the binary reader copies the palette indices of the file
+		AsciiRaster raster = fillRandom(new AsciiRaster(40, 30), new Random(4), 20);
+		AsciiRaster read = AsciiRasterBinaryTest.read(AsciiRasterBinaryTest.write(raster));
+
+		assertTrue(read instanceof IndexedAsciiRaster);
+		assertSameCells(raster, read);
+
+		raster.setCell(5, 5, 'z', color(1000), color(1001));
+		read.setCell(5, 5, 'z', color(1000), color(1001));
+		assertSameCells(raster, read);
+	}
+
+	@Test
+	public void threadsCanWriteDifferentCells() throws InterruptedException {
+		final int threads = 4;
+		final IndexedAsciiRaster indexed = new IndexedAsciiRaster(200, 150);
+		AsciiRaster expected = new AsciiRaster(200, 150);
+		List<Thread> writers = new ArrayList<>();
+
+		for (int t = 0; t < threads; ++t) {
+			final int index = t;
+
+			writers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int y = index; y < 150; y += threads)
+						for (int x = 0; x < 200; ++x)
+							indexed.setCell(x, y, (char) ('a' + index), color(x), color(y));
+				}
+			}));
+		}
+
+		for (int y = 0; y < 150; ++y)
+			for (int x = 0; x < 200; ++x)
+				expected.setCell(x, y, (char) ('a' + y % threads), color(x), color(y));
+
+		for (Thread writer : writers)
+			writer.start();
+		for (Thread writer : writers)
+			writer.join();
+
+		assertSameCells(expected, indexed);
+	}
+}
@@ -0,0 +1,127 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the rasters mapped from files in binary format by AsciiRasterBinaryReader.map()
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class MappedAsciiRasterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void mappedRasterMatchesWrittenRaster() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(70, 40), new Random(1), 1000);
+		AsciiRaster mapped = map(AsciiRasterBinaryTest.write(raster));
+
+		assertTrue(mapped.isReadOnly());
+		assertSameCells(raster, mapped);
+		assertSame(mapped, mapped.snapshot());
+	}
+
+	@Test
+	public void cloneIsModifiableAndIndependent() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(100, 70), new Random(2), 10);
+		AsciiRaster mapped = map(AsciiRasterBinaryTest.write(raster));
+		AsciiRaster copy = mapped.clone();
+
+		assertFalse(copy.isReadOnly());
+		assertSameCells(raster, copy);
+
+		copy.fillRect(10, 10, 80, 20, '\u00e9', color(100), color(101));
+		raster.fillRect(10, 10, 80, 20, '\u00e9', color(100), color(101));
+
+		assertSameCells(raster, copy);
+		assertEquals('\u00e9', copy.getCharAt(50, 15));
+		assertFalse(mapped.getCharAt(50, 15) == '\u00e9');
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void mappedRasterIsReadOnly() throws IOException {
+		map(AsciiRasterBinaryTest.write(new AsciiRaster(4, 4))).setCell(0, 0, 'a', 0, 0);
+	}
+
+	@Test
+	public void invalidFormatIsRejected() throws IOException {
+		byte[] bytes = AsciiRasterBinaryTest.write(new AsciiRaster(4, 4));
+		bytes[0] ^= 1;
+
+		assertNull(map(bytes));
+	}
+
+	@Test
+	public void oversizedPaletteIsRejected() throws IOException {
+		byte[] bytes = AsciiRasterBinaryTest.write(new AsciiRaster(4, 4));
+		ByteBuffer.wrap(bytes).putInt(AsciiRasterBinaryReader.HEADER_SIZE, Integer.MAX_VALUE);
+
+		assertNull(map(bytes));
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedCellsAreRejected() throws IOException {
+		byte[] bytes = AsciiRasterBinaryTest.write(fillRandom(new AsciiRaster(8, 8), new Random(3), 10));
+
+		map(Arrays.copyOf(bytes, bytes.length - 1));
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedPaletteIsRejected() throws IOException {
+		byte[] bytes = AsciiRasterBinaryTest.write(fillRandom(new AsciiRaster(8, 8), new Random(4), 10));
+
+		map(Arrays.copyOf(bytes, AsciiRasterBinaryReader.HEADER_SIZE + 8));
+	}
+
+	@Test
+	public void invalidIndexIsRejectedWhenRead() throws IOException {
+		AsciiRaster raster = fillRandom(new AsciiRaster(8, 8), new Random(5), 10);
+		byte[] bytes = AsciiRasterBinaryTest.write(raster);
+
+		// foreground index of the last cell
+		bytes[bytes.length - 2] = (byte) 0xFF;
+
+		AsciiRaster mapped = map(bytes);
+		assertEquals(raster.getFgRgb(6, 7), mapped.getFgRgb(6, 7));
+
+		try {
+			mapped.getFgRgb(7, 7);
+			fail("invalid index not detected");
+		} catch (UncheckedIOException ex) {
+			// expected
+		}
+	}
+
+	private AsciiRaster map(byte[] bytes) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), bytes);
+
+		// the view remains valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file.toPath())) {
+			return AsciiRasterBinaryReader.map(channel);
+		}
+	}
+}
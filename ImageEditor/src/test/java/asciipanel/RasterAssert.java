@@ -0,0 +1,120 @@
+package asciipanel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+/**
+ * Assertions and random content shared by the tests of the rasters
+ * 
+ * @author Lorenzo Bianchi
+ */
+final class RasterAssert {
+
+	private RasterAssert() {
+	}
+
+	/**
+	 * Asserts that two rasters have the same size and the same cells
+	 * 
+	 * @param expected the raster with the expected cells
+	 * @param actual   the raster to check
+	 */
+	static void assertSameCells(AsciiRaster expected, AsciiRaster actual) {
+		assertEquals("width", expected.getWidth(), actual.getWidth());
+		assertEquals("height", expected.getHeight(), actual.getHeight());
+
+		for (int y = 0; y < expected.getHeight(); ++y)
+			for (int x = 0; x < expected.getWidth(); ++x) {
+				String cell = " at " + x + "," + y;
+
+				assertEquals("character" + cell, expected.getCharAt(x, y), actual.getCharAt(x, y));
+				assertEquals("foreground" + cell, expected.getFgRgb(x, y), actual.getFgRgb(x, y));
+				assertEquals("background" + cell, expected.getBgRgb(x, y), actual.getBgRgb(x, y));
+			}
+	}
+
+	/**
+	 * Gets one of a set of distinct opaque colors
+	 * 
+	 * @param index the index of the color, less than 2^24
+	 * @return the color as ARGB
+	 */
+	static int color(int index) {
+		// multiplying by an odd number is a permutation of the 24 bits of the color
+		return 0xFF000000 | (index * 0x9E3779B1 & 0xFFFFFF);
+	}
+
+	/**
+	 * Fills a raster with random cells
+	 * 
+	 * @param raster the raster to fill
+	 * @param random the source of the cells
+	 * @param colors number of distinct colors the cells can have
+	 * @return the raster
+	 */
+	static <T extends AsciiRaster> T fillRandom(T raster, Random random, int colors) {
+		for (int y = 0; y < raster.getHeight(); ++y)
+			for (int x = 0; x < raster.getWidth(); ++x)
+				raster.setCell(x, y, (char) (' ' + random.nextInt(95)),
+						color(random.nextInt(colors)), color(random.nextInt(colors)));
+
+		return raster;
+	}
+
+	/**
+	 * Makes the same random edit to each raster. The edits use all the methods that
+	 * write cells, including the hints that let a raster compact its storage.
+	 * 
+	 * @param random  the source of the edit
+	 * @param colors  number of distinct colors the cells can have
+	 * @param rasters rasters of the same size
+	 */
+	static void editRandom(Random random, int colors, AsciiRaster... rasters) {
+		int width = rasters[0].getWidth();
+		int height = rasters[0].getHeight();
+		int operation = random.nextInt(8);
+		int x = random.nextInt(width);
+		int y = random.nextInt(height);
+		int left = random.nextInt(width + 1);
+		int right = left + random.nextInt(width - left + 1);
+		int top = random.nextInt(height + 1);
+		int bottom = top + random.nextInt(height - top + 1);
+		char character = (char) ('a' + random.nextInt(3));
+		int fgRgb = color(random.nextInt(colors));
+		int bgRgb = color(random.nextInt(colors));
+
+		for (AsciiRaster raster : rasters) {
+			switch (operation) {
+			case 0:
+				raster.setCell(x, y, character, fgRgb, bgRgb);
+				break;
+			case 1:
+				raster.setCharAt(x, y, character);
+				break;
+			case 2:
+				raster.setFgRgb(x, y, fgRgb);
+				break;
+			case 3:
+				raster.fillRow(y, left, right, character, fgRgb, bgRgb);
+				raster.rowWritten(y, left, right);
+				break;
+			case 4:
+				raster.fillRect(left, top, right, bottom, character, fgRgb, bgRgb);
+				break;
+			case 5:
+				for (int i = top; i < bottom; ++i)
+					raster.setCell(x, i, character, fgRgb, bgRgb);
+				raster.columnWritten(x, top, bottom);
+				break;
+			case 6:
+				raster.compact(left, top, right, bottom);
+				break;
+			default:
+				// uniform areas larger than a tile
+				raster.fillRect(0, top, width, bottom, character, fgRgb, bgRgb);
+				break;
+			}
+		}
+	}
+}
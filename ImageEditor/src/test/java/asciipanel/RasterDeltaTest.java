@@ -0,0 +1,183 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the recording, reverting and applying of a RasterDelta through a painter
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class RasterDeltaTest {
+
+	@Test
+	public void revertAndApplyRestoreRasterExactly() {
+		Random random = new Random(1);
+
+		for (int round = 0; round < 50; ++round) {
+			AsciiRaster raster = fillRandom(new AsciiRaster(20, 15), random, 6);
+			AsciiRaster before = raster.clone();
+			RasterDelta delta = new RasterDelta(raster);
+			AsciiPainter painter = new AsciiPainter(raster);
+
+			painter.setDelta(delta);
+			paintRandom(painter, random, 10);
+			delta.seal(raster);
+
+			AsciiRaster after = raster.clone();
+
+			// reverting and applying must be repeatable
+			for (int i = 0; i < 2; ++i) {
+				delta.revert(new AsciiPainter(raster));
+				assertSameCells(before, raster);
+
+				delta.apply(new AsciiPainter(raster));
+				assertSameCells(after, raster);
+			}
+		}
+	}
+
+	@Test
+	public void cellIsRecordedOnce() {
+		AsciiRaster raster = new AsciiRaster(4, 4);
+		RasterDelta delta = new RasterDelta(raster);
+		AsciiPainter painter = new AsciiPainter(raster);
+
+		painter.setDelta(delta);
+		painter.putCell(1, 2, 'a').putCell(1, 2, 'b').putCell(3, 0, 'c');
+		delta.seal(raster);
+
+		assertEquals(2, delta.size());
+		assertEquals(new Rectangle(1, 0, 3, 3), delta.getBounds());
+
+		delta.revert(new AsciiPainter(raster));
+		assertSameCells(new AsciiRaster(4, 4), raster);
+	}
+
+	@Test
+	public void emptyDelta() {
+		AsciiRaster raster = new AsciiRaster(4, 4);
+		RasterDelta delta = new RasterDelta(raster);
+
+		delta.seal(raster);
+
+		assertTrue(delta.isEmpty());
+		assertNull(delta.getBounds());
+	}
+
+	@Test
+	public void deltaOverflowsWhenTooManyCellsChange() {
+		AsciiRaster raster = new AsciiRaster(10, 10);
+		RasterDelta delta = new RasterDelta(raster, 8);
+		AsciiPainter painter = new AsciiPainter(raster);
+
+		painter.setDelta(delta);
+		painter.putCell(0, 0, 'a');
+		assertFalse(delta.isOverflowed());
+
+		painter.moveTo(2, 2).fillRectTo('#', 5, 5);
+		delta.seal(raster);
+
+		assertTrue(delta.isOverflowed());
+		assertFalse(delta.isEmpty());
+		assertEquals(0, delta.size());
+	}
+
+	@Test
+	public void deltaDoesNotOverflowAtLimit() {
+		AsciiRaster raster = new AsciiRaster(10, 10);
+		RasterDelta delta = new RasterDelta(raster, 9);
+		AsciiPainter painter = new AsciiPainter(raster);
+
+		painter.setDelta(delta);
+		painter.moveTo(2, 2).fillRectTo('#', 5, 5).putCell(3, 3, 'x');
+		delta.seal(raster);
+
+		assertFalse(delta.isOverflowed());
+		assertEquals(9, delta.size());
+
+		delta.revert(new AsciiPainter(raster));
+		assertSameCells(new AsciiRaster(10, 10), raster);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void overflowedDeltaCannotBeReverted() {
+		AsciiRaster raster = new AsciiRaster(10, 10);
+		RasterDelta delta = new RasterDelta(raster, 1);
+		AsciiPainter painter = new AsciiPainter(raster);
+
+		painter.setDelta(delta);
+		painter.clear();
+		delta.seal(raster);
+
+		delta.revert(new AsciiPainter(raster));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void sealedDeltaCannotRecord() {
+		AsciiRaster raster = new AsciiRaster(4, 4);
+		RasterDelta delta = new RasterDelta(raster);
+
+		delta.seal(raster);
+		delta.record(0, 0, 'a', 0, 0);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unsealedDeltaCannotBeApplied() {
+		AsciiRaster raster = new AsciiRaster(4, 4);
+
+		new RasterDelta(raster).apply(new AsciiPainter(raster));
+	}
+
+	/**
+	 * Paints random cells, lines, rectangles and fills with the painter
+	 */
+	static void paintRandom(AsciiPainter painter, Random random, int operations) {
+		int width = painter.getSurface().getWidth();
+		int height = painter.getSurface().getHeight();
+
+		painter.brush(new LinearBrush() {
+			@Override
+			protected void dot(AsciiPainter painter, int x, int y) {
+				painter.putCell(x, y, '*');
+			}
+		});
+
+		for (int i = 0; i < operations; ++i) {
+			char character = (char) ('a' + random.nextInt(3));
+
+			painter.moveTo(random.nextInt(width), random.nextInt(height))
+					.foreground(new Color(color(random.nextInt(6)), true))
+					.background(new Color(color(random.nextInt(6)), true));
+
+			switch (random.nextInt(5)) {
+			case 0:
+				painter.putCell(random.nextInt(width), random.nextInt(height), character);
+				break;
+			case 1:
+				painter.putChar(random.nextInt(width), random.nextInt(height), character);
+				break;
+			case 2:
+				painter.drawLineTo(random.nextInt(width), random.nextInt(height));
+				break;
+			case 3:
+				painter.fillRectTo(character, random.nextInt(width + 1), random.nextInt(height + 1));
+				break;
+			default:
+				painter.fill(character, random.nextBoolean());
+				break;
+			}
+		}
+	}
+}
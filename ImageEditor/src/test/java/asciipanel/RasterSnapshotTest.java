@@ -0,0 +1,118 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.editRandom;
+import static asciipanel.RasterAssert.fillRandom;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Tests of the copy-on-write snapshots of the flat AsciiRaster
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class RasterSnapshotTest {
+
+	@Test
+	public void snapshotsAreNotChangedByLaterEdits() {
+		Random random = new Random(1);
+
+		for (int round = 0; round < 50; ++round) {
+			// several bands of rows, so that only some of them are copied
+			AsciiRaster raster = fillRandom(new AsciiRaster(1 + random.nextInt(150), 1 + random.nextInt(200)), random, 5);
+			List<AsciiRaster> expected = new ArrayList<>();
+			List<AsciiRaster> snapshots = new ArrayList<>();
+
+			for (int i = 0; i < 60; ++i) {
+				if (random.nextInt(10) == 0) {
+					expected.add(raster.clone());
+					snapshots.add(raster.snapshot());
+				}
+
+				editRandom(random, 5, raster);
+			}
+
+			for (int i = 0; i < snapshots.size(); ++i)
+				assertSameCells(expected.get(i), snapshots.get(i));
+		}
+	}
+
+	@Test
+	public void writeAfterSnapshotLeavesSnapshotUnchanged() {
+		AsciiRaster raster = fillRandom(new AsciiRaster(50, 40), new Random(2), 5);
+		AsciiRaster expected = raster.clone();
+		AsciiRaster snapshot = raster.snapshot();
+
+		raster.setCell(10, 10, '\u00e9', color(10), color(11));
+		raster.setCharAt(0, 39, '\u00e9');
+		raster.setFgRgb(49, 0, color(12));
+		raster.fillRect(0, 0, 50, 40, '#', color(13), color(14));
+
+		assertSameCells(expected, snapshot);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void snapshotIsReadOnly() {
+		AsciiRaster snapshot = new AsciiRaster(4, 4).snapshot();
+
+		assertTrue(snapshot.isReadOnly());
+		assertSame(snapshot, snapshot.snapshot());
+
+		snapshot.setCell(0, 0, 'a', 0, 0);
+	}
+
+	@Test
+	public void cloneOfSnapshotIsModifiable() {
+		AsciiRaster raster = fillRandom(new AsciiRaster(30, 20), new Random(3), 5);
+		AsciiRaster expected = raster.clone();
+		AsciiRaster snapshot = raster.snapshot();
+		AsciiRaster copy = snapshot.clone();
+
+		assertFalse(copy.isReadOnly());
+		assertSameCells(expected, copy);
+
+		copy.fillRect(0, 0, 30, 20, '#', color(10), color(11));
+
+		assertSameCells(expected, snapshot);
+		assertSameCells(expected, raster);
+	}
+
+	@Test
+	public void snapshotCanBeReadWhileRasterIsWritten() throws InterruptedException {
+		final AsciiRaster raster = new AsciiRaster(200, 300);
+		raster.fillRect(0, 0, 200, 300, '.', color(0), color(0));
+
+		AsciiRaster expected = raster.clone();
+		AsciiRaster snapshot = raster.snapshot();
+		final AtomicBoolean done = new AtomicBoolean();
+
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(4);
+
+				while (!done.get())
+					editRandom(random, 5, raster);
+			}
+		});
+
+		writer.start();
+
+		try {
+			for (int i = 0; i < 20; ++i)
+				assertSameCells(expected, snapshot);
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+	}
+}
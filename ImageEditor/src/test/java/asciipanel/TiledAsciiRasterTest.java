@@ -0,0 +1,151 @@
+package asciipanel;
+
+import static asciipanel.RasterAssert.assertSameCells;
+import static asciipanel.RasterAssert.color;
+import static asciipanel.RasterAssert.editRandom;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of TiledAsciiRaster against the flat AsciiRaster
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class TiledAsciiRasterTest {
+
+	@Test
+	public void randomEditsMatchFlatRaster() {
+		Random random = new Random(1);
+
+		for (int round = 0; round < 100; ++round) {
+			// sizes that are not multiples of the tile size
+			int width = 1 + random.nextInt(3 * TiledAsciiRaster.TILE_SIZE);
+			int height = 1 + random.nextInt(3 * TiledAsciiRaster.TILE_SIZE);
+			AsciiRaster flat = new AsciiRaster(width, height);
+			AsciiRaster tiled = new TiledAsciiRaster(width, height);
+			List<AsciiRaster> expectedCopies = new ArrayList<>();
+			List<AsciiRaster> copies = new ArrayList<>();
+
+			for (int i = 0; i < 100; ++i) {
+				editRandom(random, 3, flat, tiled);
+
+				// copies share the tiles, and must not see later edits
+				if (random.nextInt(20) == 0) {
+					expectedCopies.add(flat.clone());
+					copies.add(random.nextBoolean() ? tiled.clone() : tiled.snapshot());
+				}
+			}
+
+			assertSameCells(flat, tiled);
+			for (int i = 0; i < copies.size(); ++i)
+				assertSameCells(expectedCopies.get(i), copies.get(i));
+		}
+	}
+
+	@Test
+	public void editsOfCopyDoNotChangeOriginal() {
+		Random random = new Random(2);
+		AsciiRaster flat = new AsciiRaster(150, 100);
+		TiledAsciiRaster tiled = new TiledAsciiRaster(150, 100);
+
+		for (int i = 0; i < 200; ++i)
+			editRandom(random, 3, flat, tiled);
+
+		AsciiRaster expected = flat.clone();
+		TiledAsciiRaster copy = tiled.clone();
+
+		for (int i = 0; i < 200; ++i)
+			editRandom(random, 3, flat, copy);
+
+		assertSameCells(flat, copy);
+		assertSameCells(expected, tiled);
+	}
+
+	@Test
+	public void onlyWrittenTilesAreAllocated() {
+		TiledAsciiRaster raster = new TiledAsciiRaster(1000, 1000);
+		assertEquals(0, raster.getAllocatedTileCount());
+
+		raster.fillRect(0, 0, 1000, 1000, ' ', color(0), color(1));
+		assertEquals(0, raster.getAllocatedTileCount());
+
+		raster.setCell(10, 10, 'a', color(0), color(1));
+		raster.setCell(20, 20, 'b', color(0), color(1));
+		raster.setCell(999, 999, 'c', color(0), color(1));
+		assertEquals(2, raster.getAllocatedTileCount());
+
+		// restoring the content of the tile makes it uniform again
+		raster.setCell(999, 999, ' ', color(0), color(1));
+		raster.compact(0, 0, 1000, 1000);
+		assertEquals(1, raster.getAllocatedTileCount());
+	}
+
+	@Test
+	public void rasterCanHaveMoreCellsThanAnInt() {
+		TiledAsciiRaster raster = new TiledAsciiRaster(100000, 100000);
+
+		raster.setCell(99999, 99999, 'z', color(1), color(2));
+		raster.fillRow(70000, 0, 100000, '-', color(3), color(4));
+
+		assertEquals('z', raster.getCharAt(99999, 99999));
+		assertEquals(color(2), raster.getBgRgb(99999, 99999));
+		assertEquals('-', raster.getCharAt(12345, 70000));
+		assertEquals(0, raster.getCharAt(12345, 70001));
+		// the tile of the last cell and the tiles of the row
+		int tilesAcross = (100000 + TiledAsciiRaster.TILE_SIZE - 1) / TiledAsciiRaster.TILE_SIZE;
+		assertEquals(1 + tilesAcross, raster.getAllocatedTileCount());
+	}
+
+	@Test
+	public void largeRastersAreTiled() {
+		assertTrue(AsciiRaster.create(4096, 2048) instanceof TiledAsciiRaster);
+		assertEquals(AsciiRaster.class, AsciiRaster.create(100, 100).getClass());
+	}
+
+	@Test
+	public void threadsCanWriteDifferentCellsOfSharedTiles() throws InterruptedException {
+		final int threads = 4;
+		final TiledAsciiRaster tiled = new TiledAsciiRaster(300, 200);
+		AsciiRaster expected = new AsciiRaster(300, 200);
+
+		tiled.fillRect(0, 0, 300, 200, '.', color(0), color(0));
+		expected.fillRect(0, 0, 300, 200, '.', color(0), color(0));
+
+		// the clone shares all the tiles with the original
+		final TiledAsciiRaster copy = tiled.clone();
+		AsciiRaster original = expected.clone();
+
+		// each thread writes the rows y with y % threads == index, so tiles are written by all threads
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < threads; ++t) {
+			final int index = t;
+
+			writers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int y = index; y < 200; y += threads)
+						for (int x = 0; x < 300; ++x)
+							copy.setCell(x, y, (char) ('a' + index), color(x), color(y));
+				}
+			}));
+		}
+
+		for (int y = 0; y < 200; ++y)
+			for (int x = 0; x < 300; ++x)
+				expected.setCell(x, y, (char) ('a' + y % threads), color(x), color(y));
+
+		for (Thread writer : writers)
+			writer.start();
+		for (Thread writer : writers)
+			writer.join();
+
+		assertSameCells(expected, copy);
+		assertSameCells(original, tiled);
+	}
+}
@@ -0,0 +1,88 @@
+package imageeditor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import asciipanel.AsciiPainter;
+import asciipanel.AsciiRaster;
+
+/**
+ * Tests of the undo and redo history of EditorStateModel
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class EditorStateModelTest {
+
+	private EditorStateModel state;
+
+	@Before
+	public void setUp() {
+		state = new EditorStateModel();
+	}
+
+	@Test
+	public void undoAndRedoRestoreRaster() {
+		AsciiRaster raster = new AsciiRaster(10, 10);
+		state.getMainPanelModel().setRaster(raster);
+
+		paint('a', 0, 0, 5, 5);
+		paint('b', 3, 3, 8, 8);
+
+		state.undo();
+		assertEquals('a', raster.getCharAt(4, 4));
+		assertEquals(0, raster.getCharAt(6, 6));
+
+		state.undo();
+		assertEquals(0, raster.getCharAt(4, 4));
+		assertFalse(state.canUndo());
+
+		state.redo();
+		state.redo();
+		assertEquals('b', raster.getCharAt(4, 4));
+		assertEquals('a', raster.getCharAt(1, 1));
+		assertFalse(state.canRedo());
+	}
+
+	@Test
+	public void operationWithoutChangesIsNotRecorded() {
+		state.getMainPanelModel().setRaster(new AsciiRaster(10, 10));
+
+		state.endPaint(state.beginUndoablePaint());
+		state.undo();
+
+		assertFalse(state.canUndo());
+		assertFalse(state.canRedo());
+	}
+
+	@Test
+	public void overflowedOperationKeepsOlderHistory() {
+		// larger than the undo history, so that clearing it overflows
+		AsciiRaster raster = new AsciiRaster(2000, 1000);
+		state.getMainPanelModel().setRaster(raster);
+
+		paint('a', 0, 0, 2, 2);
+
+		AsciiPainter painter = state.beginUndoablePaint();
+		painter.clear('b');
+		state.endPaint(painter);
+
+		assertNull(painter.getDelta());
+		assertTrue(state.canUndo());
+
+		state.undo();
+		assertEquals(0, raster.getCharAt(1, 1));
+		assertEquals('b', raster.getCharAt(5, 5));
+		assertFalse(state.canUndo());
+	}
+
+	private void paint(char character, int left, int top, int right, int bottom) {
+		AsciiPainter painter = state.beginUndoablePaint();
+		painter.moveTo(left, top).fillRectTo(character, right, bottom);
+		state.endPaint(painter);
+	}
+}
@@ -0,0 +1,124 @@
+package imageeditor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import asciipanel.AsciiRaster;
+import asciipanel.AsciiRasterReader;
+
+/**
+ * Tests of the choice of the file format by the extension of the file
+ * 
+ * @author Lorenzo Bianchi
+ */
+public class ImageEditorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void textFormatRoundTrip() throws IOException {
+		assertRoundTrip(ImageEditor.TEXT_FORMAT_EXTENSION);
+	}
+
+	@Test
+	public void binaryFormatRoundTrip() throws IOException {
+		assertRoundTrip(ImageEditor.BINARY_FORMAT_EXTENSION);
+	}
+
+	@Test
+	public void runLengthFormatRoundTrip() throws IOException {
+		assertRoundTrip(ImageEditor.RUN_LENGTH_FORMAT_EXTENSION);
+	}
+
+	@Test
+	public void runLengthFormatIsChosenByExtension() throws IOException {
+		AsciiRaster raster = new AsciiRaster(30, 20);
+		File text = new File(folder.getRoot(), "raster" + ImageEditor.TEXT_FORMAT_EXTENSION);
+		File runLength = new File(folder.getRoot(), "raster" + ImageEditor.RUN_LENGTH_FORMAT_EXTENSION);
+
+		ImageEditor.writeRaster(text, raster);
+		ImageEditor.writeRaster(runLength, raster);
+
+		// even a uniform raster is saved in plain text format with the text extension
+		assertFalse(firstLine(text).equals(AsciiRasterReader.RUN_LENGTH_MARKER));
+		assertEquals(AsciiRasterReader.RUN_LENGTH_MARKER, firstLine(runLength));
+	}
+
+	@Test
+	public void binaryFormatIsChosenByExtension() throws IOException {
+		AsciiRaster raster = randomRaster();
+		File text = new File(folder.getRoot(), "raster" + ImageEditor.TEXT_FORMAT_EXTENSION);
+		File binary = new File(folder.getRoot(), "raster" + ImageEditor.BINARY_FORMAT_EXTENSION);
+
+		ImageEditor.writeRaster(text, raster);
+		ImageEditor.writeRaster(binary, raster);
+
+		assertTrue(binary.length() < text.length());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownExtensionIsRejected() throws IOException {
+		File file = new File(folder.getRoot(), "raster.txt");
+
+		try {
+			ImageEditor.writeRaster(file, randomRaster());
+		} finally {
+			assertFalse(file.exists());
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+
+	@Test
+	public void hasRasterExtension() {
+		assertTrue(ImageEditor.hasRasterExtension(new File("a" + ImageEditor.TEXT_FORMAT_EXTENSION)));
+		assertTrue(ImageEditor.hasRasterExtension(new File("a" + ImageEditor.BINARY_FORMAT_EXTENSION)));
+		assertTrue(ImageEditor.hasRasterExtension(new File("a" + ImageEditor.RUN_LENGTH_FORMAT_EXTENSION)));
+		assertFalse(ImageEditor.hasRasterExtension(new File("a.png")));
+	}
+
+	private void assertRoundTrip(String extension) throws IOException {
+		AsciiRaster raster = randomRaster();
+		File file = new File(folder.getRoot(), "raster" + extension);
+
+		ImageEditor.writeRaster(file, raster);
+		AsciiRaster read = ImageEditor.readRaster(file);
+
+		assertEquals(raster.getWidth(), read.getWidth());
+		assertEquals(raster.getHeight(), read.getHeight());
+
+		for (int y = 0; y < raster.getHeight(); ++y)
+			for (int x = 0; x < raster.getWidth(); ++x) {
+				assertEquals(raster.getCharAt(x, y), read.getCharAt(x, y));
+				assertEquals(raster.getFgRgb(x, y), read.getFgRgb(x, y));
+				assertEquals(raster.getBgRgb(x, y), read.getBgRgb(x, y));
+			}
+	}
+
+	private static String firstLine(File file) throws IOException {
+		return Files.readAllLines(file.toPath(), Charset.defaultCharset()).get(0);
+	}
+
+	private static AsciiRaster randomRaster() {
+		Random random = new Random(1);
+		AsciiRaster raster = new AsciiRaster(30, 20);
+
+		for (int y = 0; y < raster.getHeight(); ++y)
+			for (int x = 0; x < raster.getWidth(); ++x)
+				raster.setCell(x, y, (char) ('A' + random.nextInt(26)), 0xFF000000 | random.nextInt(4) * 0x404040,
+						0xFF000000 | random.nextInt(4) * 0x102030);
+
+		return raster;
+	}
+}